@@ -0,0 +1,106 @@
+package queue;
+
+/**
+ * Capacity planning result computed from {@link QueueAgeStats}.
+ * <p>
+ * Every evicted element would have needed more than the current capacity, so when more
+ * than {@code 100 - percentile} percent of the elements were evicted the recorded data
+ * only proves a lower bound and {@link #isLowerBound()} returns {@code true}. The
+ * recommendation is then the capacity plus one slot for every evicted element above the
+ * tolerated ones, which is what a single burst of evictions needed. It overestimates when
+ * the evictions came from several bursts, and under sustained overload, when
+ * {@link #evictionRate()} stays high at any capacity, no capacity stops the loss.
+ */
+public class CapacityReport {
+    private final int capacity;
+    private final double percentile;
+    private final LongHistogram.Snapshot evictedAge;
+    private final LongHistogram.Snapshot consumedAge;
+    private final long recommendedCapacity;
+    private final boolean lowerBound;
+
+    CapacityReport(int capacity, double percentile, LongHistogram.Snapshot evictedAge,
+                   LongHistogram.Snapshot consumedAge, LongHistogram.Snapshot consumedDepth) {
+        if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.percentile = percentile;
+        this.evictedAge = evictedAge;
+        this.consumedAge = consumedAge;
+
+        long consumed = consumedDepth.count();
+        long total = consumed + evictedAge.count();
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        if (total == 0) {
+            this.recommendedCapacity = 1;
+            this.lowerBound = true;
+        } else if (rank <= consumed) {
+            double consumedPercentile = 100.0 * rank / consumed;
+            this.recommendedCapacity = Math.max(1, consumedDepth.valueAtPercentile(consumedPercentile));
+            this.lowerBound = false;
+        } else {
+            // the evicted elements beyond the tolerated total - rank would each have needed a slot
+            this.recommendedCapacity = (long) capacity + (rank - consumed);
+            this.lowerBound = true;
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public double percentile() {
+        return percentile;
+    }
+
+    public long evictedCount() {
+        return evictedAge.count();
+    }
+
+    public long consumedCount() {
+        return consumedAge.count();
+    }
+
+    public LongHistogram.Snapshot evictedAge() {
+        return evictedAge;
+    }
+
+    public LongHistogram.Snapshot consumedAge() {
+        return consumedAge;
+    }
+
+    /**
+     * Elements evicted per second while the queue was full, zero without evictions. Every
+     * insertion into the full queue evicts the element inserted {@code capacity} insertions
+     * before, so by Little's law this is the capacity over the mean evicted age.
+     */
+    public double evictionRate() {
+        double meanAge = evictedAge.mean();
+        return (meanAge == 0) ? 0 : capacity * 1e9 / meanAge;
+    }
+
+    public long recommendedCapacity() {
+        return recommendedCapacity;
+    }
+
+    public boolean isLowerBound() {
+        return lowerBound;
+    }
+
+    @Override
+    public String toString() {
+        String verdict;
+        if (lowerBound) {
+            verdict = "under-provisioned, needs at least " + recommendedCapacity;
+        } else if (recommendedCapacity < capacity) {
+            verdict = "over-provisioned, " + recommendedCapacity + " is enough";
+        } else {
+            verdict = "sized right";
+        }
+        return "capacity=" + capacity
+                + " p" + percentile + " recommended=" + recommendedCapacity
+                + " (" + verdict + ")"
+                + " evictionRate=" + String.format("%.1f/s", evictionRate())
+                + " evicted[" + evictedAge + "]"
+                + " consumed[" + consumedAge + "]";
+    }
+}
@@ -1,33 +1,192 @@
 package queue;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.AbstractQueue;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Thread-safe {@link MostRecentlyInsertedQueue}. Elements may be held through soft or weak
+ * references, see {@link ElementReferences}; nodes whose element was reclaimed are unlinked
+ * from the reference queue by the next offer, poll or peek, and iteration skips them.
+ */
 public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Queue<E> {
     private volatile Node<E> head;
     private volatile Node<E> tail;
 
-    private final int capacity;
+    // guarded by this: the capacity, the fraction of it kept, lowered by a
+    // MemoryPressureMonitor, and the effective capacity
+    private int capacity;
+    private double scale = 1;
+    private int limit;
     private volatile int count;
+    // occurrences per element, built by the first offerIfAbsent, guarded by this
+    private OpenHashCounter counter;
+
+    private final ElementReferences references;
+    // reclaimed elements of soft or weak nodes, null for strong elements
+    private final ReferenceQueue<E> reclaimed;
 
     static class Node<E> {
         volatile E element;
         volatile Node<E> next;
+        Node<E> prev;
 
         Node(E element) {
             this.element = element;
         }
+
+        // the element, null once the node is removed or its element reclaimed
+        E element() {
+            return element;
+        }
+
+        // whether the node was not removed yet, its element may still be reclaimed
+        boolean isLinked() {
+            return element != null;
+        }
+
+        void clear() {
+            element = null;
+        }
+    }
+
+    // allocated by offerWithTtl for strong elements, keeps its expiration to cancel it once removed
+    private static final class ExpiringNode<E> extends Node<E> {
+        Expiration<E> expiration;
+
+        ExpiringNode(E element) {
+            super(element);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            TimerWheel.shared().cancel(expiration);
+        }
+    }
+
+    // holds its element through a soft or weak reference enqueued on the queue's reference queue
+    private static final class ReferenceNode<E> extends Node<E> {
+        volatile Reference<E> reference;
+        // set if offered with a time-to-live, fits in the padding of the node
+        Expiration<E> expiration;
+
+        ReferenceNode(E element, ElementReferences references, ReferenceQueue<E> reclaimed) {
+            super(null);
+            this.reference = (references == ElementReferences.SOFT)
+                    ? new SoftElement<>(element, reclaimed, this)
+                    : new WeakElement<>(element, reclaimed, this);
+        }
+
+        @Override
+        E element() {
+            Reference<E> reference = this.reference;
+            return (reference == null) ? null : reference.get();
+        }
+
+        @Override
+        boolean isLinked() {
+            return reference != null;
+        }
+
+        @Override
+        void clear() {
+            Reference<E> reference = this.reference;
+            if (reference != null) {
+                // a cleared reference is not enqueued any more
+                reference.clear();
+                this.reference = null;
+            }
+            if (expiration != null) {
+                TimerWheel.shared().cancel(expiration);
+            }
+        }
+    }
+
+    private interface ElementReference<E> {
+        ReferenceNode<E> node();
+    }
+
+    private static final class SoftElement<E> extends SoftReference<E> implements ElementReference<E> {
+        private final ReferenceNode<E> node;
+
+        SoftElement(E element, ReferenceQueue<E> reclaimed, ReferenceNode<E> node) {
+            super(element, reclaimed);
+            this.node = node;
+        }
+
+        public ReferenceNode<E> node() {
+            return node;
+        }
+    }
+
+    private static final class WeakElement<E> extends WeakReference<E> implements ElementReference<E> {
+        private final ReferenceNode<E> node;
+
+        WeakElement(E element, ReferenceQueue<E> reclaimed, ReferenceNode<E> node) {
+            super(element, reclaimed);
+            this.node = node;
+        }
+
+        public ReferenceNode<E> node() {
+            return node;
+        }
     }
 
     public ConcurrentMostRecentlyInsertedQueue(int capacity) {
+        this(capacity, ElementReferences.STRONG);
+    }
+
+    /**
+     * Creates a queue holding its elements with the given references. With soft or weak
+     * references an element may disappear from the queue once the garbage collector reclaims
+     * it, and {@code size()} counts it until the next offer, poll or peek.
+     */
+    public ConcurrentMostRecentlyInsertedQueue(int capacity, ElementReferences references) {
         if (capacity <= 0) throw new IllegalArgumentException();
+        if (references == null) throw new NullPointerException();
         this.capacity = capacity;
+        this.limit = capacity;
+        this.references = references;
+        this.reclaimed = (references == ElementReferences.STRONG) ? null : new ReferenceQueue<E>();
         tail = head = new Node<>(null);
     }
 
+    public ElementReferences elementReferences() {
+        return references;
+    }
+
+    private Node<E> newNode(E element) {
+        return (reclaimed == null) ? new Node<>(element) : new ReferenceNode<>(element, references, reclaimed);
+    }
+
+    // must be called holding this, unlinks the nodes whose element was reclaimed
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        if (reclaimed == null) {
+            return;
+        }
+        Reference<? extends E> reference;
+        while ((reference = reclaimed.poll()) != null) {
+            ReferenceNode<E> node = ((ElementReference<E>) reference).node();
+            // a node removed before its element was reclaimed is already unlinked
+            if (node.reference == reference) {
+                unlink(node, node.prev);
+            }
+        }
+    }
+
     private void enqueue(Node<E> node) {
+        if (counter != null) {
+            counter.increment(node.element);
+        }
+        node.prev = tail;
         tail = tail.next = node;
     }
 
@@ -36,8 +195,12 @@ public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> imp
 
         head.next = head; // remove head node from queue
         head = first; // make first node as head of queue
-        E removedElement = first.element; //hold first element for return it
-        head.element = null; // remove first element from head
+        head.prev = null;
+        E removedElement = first.element(); //hold first element for return it, null if reclaimed
+        first.clear(); // remove first element from head
+        if (counter != null) {
+            counter.decrement(removedElement);
+        }
 
         return removedElement;
     }
@@ -49,19 +212,27 @@ public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> imp
 
         private IteratorImpl() {
             synchronized (ConcurrentMostRecentlyInsertedQueue.this) {
-                current = head.next;
-                if (current != null)
-                    currentElement = current.element;
+                advance(head);
             }
         }
 
-        private Node<E> nextNode(Node<E> currentNode) {
+        // moves to the first node after currentNode that still has its element
+        private void advance(Node<E> currentNode) {
             while (true) {
                 Node<E> nextNode = currentNode.next;
                 if (nextNode == currentNode)
-                    return head.next;
-                if (nextNode == null || nextNode.element != null)
-                    return nextNode;
+                    nextNode = head.next;
+                if (nextNode == null) {
+                    current = null;
+                    currentElement = null;
+                    return;
+                }
+                E element = nextNode.element();
+                if (element != null) {
+                    current = nextNode;
+                    currentElement = element;
+                    return;
+                }
                 currentNode = nextNode;
             }
         }
@@ -76,8 +247,7 @@ public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> imp
                     throw new NoSuchElementException();
                 E x = currentElement;
                 lastRet = current;
-                current = nextNode(current);
-                currentElement = (current == null) ? null : current.element;
+                advance(current);
                 return x;
             }
         }
@@ -101,13 +271,39 @@ public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> imp
     }
 
     void unlink(Node<E> nextNode, Node<E> currentNode) {
-        nextNode.element = null;
-        currentNode.next = nextNode.next;
+        if (counter != null) {
+            counter.decrement(nextNode.element);
+        }
+        nextNode.clear();
+        Node<E> after = nextNode.next;
+        currentNode.next = after;
+        if (after != null)
+            after.prev = currentNode;
         if (tail == nextNode)
             tail = currentNode;
         count -= 1;
     }
 
+    private static class Expiration<E> extends TimerWheel.Entry {
+        private final ConcurrentMostRecentlyInsertedQueue<E> queue;
+        private final Node<E> node;
+
+        Expiration(ConcurrentMostRecentlyInsertedQueue<E> queue, Node<E> node) {
+            this.queue = queue;
+            this.node = node;
+        }
+
+        @Override
+        protected void expire() {
+            synchronized (queue) {
+                // a polled, evicted or removed node has no element any more
+                if (node.isLinked()) {
+                    queue.unlink(node, node.prev);
+                }
+            }
+        }
+    }
+
     @Override
     public Iterator<E> iterator() {
         return new IteratorImpl();
@@ -124,38 +320,161 @@ public class ConcurrentMostRecentlyInsertedQueue<E> extends AbstractQueue<E> imp
             throw new NullPointerException();
         }
 
-        Node<E> node = new Node<>(element);
+        insert(newNode(element));
+        return true;
+    }
+
+    /**
+     * Inserts the element and removes it again once the time-to-live passed, unless it was
+     * polled or evicted before. Expired elements are unlinked by the shared {@link TimerWheel}
+     * without scanning the queue, so {@code size()} only counts live elements; polling,
+     * evicting or removing the element cancels its timer.
+     */
+    public boolean offerWithTtl(E element, long ttl, TimeUnit unit) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+
+        // the expiration is set before the node can be removed, a timer cancelled before it is
+        // scheduled never runs
+        Expiration<E> expiration;
+        if (reclaimed == null) {
+            ExpiringNode<E> node = new ExpiringNode<>(element);
+            node.expiration = expiration = new Expiration<>(this, node);
+            insert(node);
+        } else {
+            ReferenceNode<E> node = new ReferenceNode<>(element, references, reclaimed);
+            node.expiration = expiration = new Expiration<>(this, node);
+            insert(node);
+        }
+        TimerWheel.shared().schedule(expiration, ttl, unit);
+        return true;
+    }
+
+    /**
+     * Atomically inserts the element unless an equal element is queued. The first call builds
+     * a counting index of the queued elements, which every later insertion and removal keeps
+     * exact, so the check is O(1) even if elements are queued several times.
+     *
+     * @return false if an equal element is already queued
+     * @throws UnsupportedOperationException if the queue holds soft or weak references, which
+     *         the index would defeat
+     */
+    public synchronized boolean offerIfAbsent(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        if (reclaimed != null) {
+            throw new UnsupportedOperationException("offerIfAbsent needs strong element references");
+        }
+        if (counter == null) {
+            OpenHashCounter built = new OpenHashCounter();
+            for (Node<E> node = head.next; node != null; node = node.next) {
+                built.increment(node.element);
+            }
+            counter = built;
+        }
+        if (counter.count(element) > 0) {
+            return false;
+        }
+        insert(new Node<>(element));
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        synchronized (this) {
+            if (counter != null) {
+                return object != null && counter.count(object) > 0;
+            }
+        }
+        return super.contains(object);
+    }
 
+    private void insert(Node<E> node) {
         synchronized (this) {
+            purge();
             enqueue(node);
-            if (count < capacity) {
+            if (count < limit) {
                 count += 1;
             } else {
+                // evicts one element even while a shrink leaves a surplus, setCapacity trims the rest
                 dequeue();
             }
         }
-        return true;
+    }
+
+    public synchronized int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity. Growing only raises the bound; shrinking drops the oldest
+     * elements above the new capacity one at a time, releasing the lock after each, so that
+     * a concurrent offer waits for at most one eviction.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        synchronized (this) {
+            this.capacity = capacity;
+            limit = MostRecentlyInsertedQueue.scaled(capacity, scale);
+        }
+        trimToLimit();
+    }
+
+    /**
+     * Lowers the effective capacity to the fraction of the capacity, dropping the oldest
+     * elements above it, or restores it for a fraction of 1.
+     */
+    void scaleCapacity(double fraction) {
+        synchronized (this) {
+            scale = fraction;
+            limit = MostRecentlyInsertedQueue.scaled(capacity, fraction);
+        }
+        trimToLimit();
+    }
+
+    private void trimToLimit() {
+        boolean surplus = true;
+        while (surplus) {
+            synchronized (this) {
+                if (count > limit) {
+                    dequeue();
+                    count -= 1;
+                }
+                surplus = count > limit;
+            }
+            // lets a thread blocked on the monitor in ahead of the next eviction
+            if (surplus) {
+                Thread.yield();
+            }
+        }
     }
 
     @Override
     public synchronized E poll() {
-        if (count == 0) {
-            return null;
+        purge();
+        // a reclaimed element may still be queued, it is dropped like a polled one
+        while (count > 0) {
+            E removedElement = dequeue();
+            count -= 1;
+            if (removedElement != null) {
+                return removedElement;
+            }
         }
-        E removedElement = dequeue();
-        count -= 1;
-
-        return removedElement;
+        return null;
     }
 
     @Override
     public synchronized E peek() {
-        if (count == 0) {
-            return null;
+        purge();
+        for (Node<E> node = head.next; node != null; node = node.next) {
+            E element = node.element();
+            if (element != null) {
+                return element;
+            }
         }
-
-        Node<E> first = head.next;
-        return first.element;
+        return null;
     }
 
     @Override
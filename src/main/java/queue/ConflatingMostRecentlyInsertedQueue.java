@@ -0,0 +1,343 @@
+package queue;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue of key/value pairs that keeps only the latest value per key.
+ * <p>
+ * Keys are queued in the order they were first inserted. Putting a key that is already queued
+ * replaces its value in place, found through a hash index in O(1), so the key keeps its
+ * position and consumers never see a stale value. Putting a new key into the full queue
+ * evicts the oldest key. Removed entries are returned as immutable {@link Map.Entry}s.
+ */
+public class ConflatingMostRecentlyInsertedQueue<K, V> {
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        V value;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Node<K, V>> index;
+
+    // queued in first-insertion order of the keys, head is the oldest
+    private Node<K, V> head;
+    private Node<K, V> tail;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // written holding lock
+    private volatile long evictionCount;
+    private volatile long conflationCount;
+
+    public ConflatingMostRecentlyInsertedQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.index = new HashMap<>(Math.min(capacity, 1 << 16) * 4 / 3 + 1);
+    }
+
+    /** Number of keys evicted because the queue was full. */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /** Number of values replaced by a newer value for the same key before being consumed. */
+    public long conflationCount() {
+        return conflationCount;
+    }
+
+    /**
+     * Queues the value for the key, or replaces the queued value of the key in place. Never
+     * blocks; a new key inserted into the full queue evicts the oldest key.
+     *
+     * @return the replaced value, or null if the key was not queued
+     */
+    public V put(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        lock.lock();
+        try {
+            Node<K, V> node = index.get(key);
+            if (node != null) {
+                V previous = node.value;
+                node.value = value;
+                conflationCount++;
+                return previous;
+            }
+            if (index.size() == capacity) {
+                dequeue();
+                evictionCount++;
+            }
+            node = new Node<>(key, value);
+            index.put(key, node);
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            notEmpty.signal();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // must be called holding lock with a non-empty queue
+    private Map.Entry<K, V> dequeue() {
+        Node<K, V> first = head;
+        head = first.next;
+        first.next = null;
+        if (head == null) {
+            tail = null;
+        }
+        index.remove(first.key);
+        return first;
+    }
+
+    /** Removes the oldest key and its latest value, or returns null if the queue is empty. */
+    public Map.Entry<K, V> poll() {
+        lock.lock();
+        try {
+            return (head == null) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes the oldest key and its latest value, waiting until one is available. */
+    public Map.Entry<K, V> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (head == null) {
+                notEmpty.await();
+            }
+            Map.Entry<K, V> entry = dequeue();
+            if (head != null) {
+                notEmpty.signal();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map.Entry<K, V> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (head == null) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Map.Entry<K, V> entry = dequeue();
+            if (head != null) {
+                notEmpty.signal();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the oldest key with its latest value without removing it, or null if empty. */
+    public Map.Entry<K, V> peek() {
+        lock.lock();
+        try {
+            return (head == null) ? null : new AbstractMap.SimpleImmutableEntry<>(head.key, head.value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the queued value of the key, or null if the key is not queued. */
+    public V get(K key) {
+        lock.lock();
+        try {
+            Node<K, V> node = index.get(key);
+            return (node == null) ? null : node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean containsKey(K key) {
+        lock.lock();
+        try {
+            return index.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes the key and its value from the queue. */
+    public V remove(K key) {
+        lock.lock();
+        try {
+            Node<K, V> node = index.remove(key);
+            if (node == null) {
+                return null;
+            }
+            if (head == node) {
+                head = node.next;
+                if (head == null) {
+                    tail = null;
+                }
+            } else {
+                Node<K, V> before = head;
+                while (before.next != node) {
+                    before = before.next;
+                }
+                before.next = node.next;
+                if (tail == node) {
+                    tail = before;
+                }
+            }
+            node.next = null;
+            return node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all queued entries into the collection, in queue order. The entries are a
+     * snapshot: each holds the latest value at the time of the drain.
+     */
+    public int drainTo(Collection<? super Map.Entry<K, V>> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super Map.Entry<K, V>> collection, int maxElements) {
+        if (collection == null)
+            throw new NullPointerException();
+        if (maxElements <= 0)
+            return 0;
+        lock.lock();
+        try {
+            int drainCount = 0;
+            while (drainCount < maxElements && head != null) {
+                collection.add(dequeue());
+                drainCount++;
+            }
+            return drainCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes all queued entries into the map, keeping the latest value per key. */
+    public int drainTo(Map<? super K, ? super V> map) {
+        if (map == null)
+            throw new NullPointerException();
+        lock.lock();
+        try {
+            int drainCount = 0;
+            while (head != null) {
+                Map.Entry<K, V> entry = dequeue();
+                map.put(entry.getKey(), entry.getValue());
+                drainCount++;
+            }
+            return drainCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (Node<K, V> node = head; node != null; ) {
+                Node<K, V> next = node.next;
+                node.next = null;
+                node = next;
+            }
+            head = tail = null;
+            index.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder("[");
+            for (Node<K, V> node = head; node != null; node = node.next) {
+                sb.append(node);
+                if (node.next != null) {
+                    sb.append(", ");
+                }
+            }
+            return sb.append(']').toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
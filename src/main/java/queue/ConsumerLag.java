@@ -0,0 +1,51 @@
+package queue;
+
+/**
+ * Consumer lag gauges of one queue, as observed by a {@link ConsumerWatchdog} check.
+ */
+public class ConsumerLag {
+    private final int size;
+    private final long oldestElementAgeNanos;
+    private final long nanosSinceLastConsume;
+    private final double evictionsPerSecond;
+    private final boolean stalled;
+
+    ConsumerLag(int size, long oldestElementAgeNanos, long nanosSinceLastConsume,
+                double evictionsPerSecond, boolean stalled) {
+        this.size = size;
+        this.oldestElementAgeNanos = oldestElementAgeNanos;
+        this.nanosSinceLastConsume = nanosSinceLastConsume;
+        this.evictionsPerSecond = evictionsPerSecond;
+        this.stalled = stalled;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Age of the oldest element, or -1 if the queue does not timestamp its elements. */
+    public long oldestElementAgeNanos() {
+        return oldestElementAgeNanos;
+    }
+
+    public long nanosSinceLastConsume() {
+        return nanosSinceLastConsume;
+    }
+
+    public double evictionsPerSecond() {
+        return evictionsPerSecond;
+    }
+
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size
+                + " oldestElementAgeNanos=" + oldestElementAgeNanos
+                + " nanosSinceLastConsume=" + nanosSinceLastConsume
+                + " evictionsPerSecond=" + String.format("%.1f", evictionsPerSecond)
+                + " stalled=" + stalled;
+    }
+}
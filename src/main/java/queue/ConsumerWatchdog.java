@@ -0,0 +1,120 @@
+package queue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects stalled consumers of {@link MostRecentlyInsertedBlockingQueue}s. With evict-oldest
+ * semantics producers keep succeeding when nobody consumes, so the watchdog periodically
+ * compares each queue's consumed and eviction counters on one shared timer thread and
+ * reports a queue as stalled when it holds elements but nothing was consumed (or the oldest
+ * element is older) for longer than the stall timeout.
+ */
+public class ConsumerWatchdog {
+
+    public interface Listener {
+        void stalled(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag);
+
+        void recovered(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag);
+    }
+
+    private static class Watch {
+        final Listener listener;
+        long lastConsumedCount;
+        long lastProgressTime;
+        long lastEvictionCount;
+        long lastCheckTime;
+        volatile ConsumerLag lag;
+
+        Watch(MostRecentlyInsertedBlockingQueue<?> queue, Listener listener, long now) {
+            this.listener = listener;
+            this.lastConsumedCount = queue.consumedCount();
+            this.lastEvictionCount = queue.evictionCount();
+            this.lastProgressTime = now;
+            this.lastCheckTime = now;
+            this.lag = new ConsumerLag(queue.size(), -1, 0, 0.0, false);
+        }
+    }
+
+    private final long stallTimeoutNanos;
+    private final Map<MostRecentlyInsertedBlockingQueue<?>, Watch> watches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    public ConsumerWatchdog(long stallTimeout, long checkInterval, TimeUnit unit) {
+        if (stallTimeout <= 0 || checkInterval <= 0) throw new IllegalArgumentException();
+        this.stallTimeoutNanos = unit.toNanos(stallTimeout);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "consumer-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::checkAll, checkInterval, checkInterval, unit);
+    }
+
+    public void register(MostRecentlyInsertedBlockingQueue<?> queue, Listener listener) {
+        if (queue == null || listener == null) throw new NullPointerException();
+        watches.put(queue, new Watch(queue, listener, System.nanoTime()));
+    }
+
+    public void unregister(MostRecentlyInsertedBlockingQueue<?> queue) {
+        watches.remove(queue);
+    }
+
+    /** Returns the lag observed by the latest check, or null if the queue is not registered. */
+    public ConsumerLag lag(MostRecentlyInsertedBlockingQueue<?> queue) {
+        Watch watch = watches.get(queue);
+        return (watch == null) ? null : watch.lag;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        watches.clear();
+    }
+
+    void checkAll() {
+        for (Map.Entry<MostRecentlyInsertedBlockingQueue<?>, Watch> entry : watches.entrySet()) {
+            try {
+                check(entry.getKey(), entry.getValue());
+            } catch (RuntimeException e) {
+                // a failing listener must not cancel the checks of the other queues, but must
+                // not go unnoticed either
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private void check(MostRecentlyInsertedBlockingQueue<?> queue, Watch watch) {
+        long now = System.nanoTime();
+        long consumedCount = queue.consumedCount();
+        long evictionCount = queue.evictionCount();
+        int size = queue.size();
+        long oldestAge = queue.oldestElementAgeNanos();
+
+        if (consumedCount != watch.lastConsumedCount || size == 0) {
+            watch.lastConsumedCount = consumedCount;
+            watch.lastProgressTime = now;
+        }
+        long sinceLastConsume = now - watch.lastProgressTime;
+        long elapsed = now - watch.lastCheckTime;
+        double evictionsPerSecond = (elapsed <= 0) ? 0.0
+                : (evictionCount - watch.lastEvictionCount) * 1e9 / elapsed;
+        watch.lastEvictionCount = evictionCount;
+        watch.lastCheckTime = now;
+
+        boolean stalled = size > 0
+                && (sinceLastConsume >= stallTimeoutNanos || oldestAge >= stallTimeoutNanos);
+        boolean wasStalled = watch.lag.isStalled();
+        ConsumerLag lag = new ConsumerLag(size, oldestAge, sinceLastConsume, evictionsPerSecond, stalled);
+        watch.lag = lag;
+
+        if (stalled && !wasStalled) {
+            watch.listener.stalled(queue, lag);
+        } else if (!stalled && wasStalled) {
+            watch.listener.recovered(queue, lag);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package queue;
+
+/**
+ * Side index a {@link MostRecentlyInsertedBlockingQueue} can keep over its live elements to
+ * make {@code contains} and {@code remove(Object)} O(1).
+ */
+public enum ElementIndex {
+    /** No index, {@code contains} and {@code remove(Object)} walk the queue. */
+    NONE,
+    /** Elements are matched with {@code equals}, like the unindexed queue does. */
+    EQUALITY,
+    /** Elements are matched with {@code ==}, for handles that are removed by the same instance. */
+    IDENTITY
+}
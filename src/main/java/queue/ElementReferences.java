@@ -0,0 +1,13 @@
+package queue;
+
+/**
+ * How a {@link ConcurrentMostRecentlyInsertedQueue} holds its elements.
+ */
+public enum ElementReferences {
+    /** Elements stay queued until they are polled, evicted or removed. */
+    STRONG,
+    /** The garbage collector may reclaim elements when memory runs low. */
+    SOFT,
+    /** The garbage collector may reclaim elements as soon as nothing else references them. */
+    WEAK
+}
@@ -0,0 +1,186 @@
+package queue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-bucketed histogram of non-negative long values (HDR-style, ~3% relative error).
+ * Every recording thread writes into its own buckets, so recording never contends;
+ * the per-thread buckets are merged when a {@link Snapshot} is taken. The buckets of a
+ * thread that terminated are folded into a shared total and dropped when the next thread
+ * starts recording or the next snapshot is taken, so thread churn does not accumulate them.
+ */
+public class LongHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static class Recorder {
+        private final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        // written only by the owning thread, lazySet makes the writes visible to snapshot readers
+        final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT + 2);
+
+        // once the owner terminated its counts are final
+        boolean isRetired() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        void record(long value) {
+            int index = bucketIndex(value);
+            counts.lazySet(index, counts.get(index) + 1);
+            counts.lazySet(BUCKET_COUNT, counts.get(BUCKET_COUNT) + value);
+            if (value > counts.get(BUCKET_COUNT + 1)) {
+                counts.lazySet(BUCKET_COUNT + 1, value);
+            }
+        }
+    }
+
+    // guarded by recorders: the recorders of live threads, and the merged counts of the
+    // recorders of terminated threads, in the layout of Recorder.counts
+    private final List<Recorder> recorders = new ArrayList<>();
+    private long[] retired;
+
+    private final ThreadLocal<Recorder> localRecorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            Recorder recorder = new Recorder();
+            synchronized (recorders) {
+                retireTerminated();
+                recorders.add(recorder);
+            }
+            return recorder;
+        }
+    };
+
+    public void record(long value) {
+        localRecorder.get().record(value < 0 ? 0 : value);
+    }
+
+    // must be called holding recorders, folds the recorders of terminated threads into retired
+    private void retireTerminated() {
+        for (Iterator<Recorder> it = recorders.iterator(); it.hasNext(); ) {
+            Recorder recorder = it.next();
+            if (recorder.isRetired()) {
+                if (retired == null) {
+                    retired = new long[BUCKET_COUNT + 2];
+                }
+                for (int i = 0; i <= BUCKET_COUNT; i++) {
+                    retired[i] += recorder.counts.get(i);
+                }
+                retired[BUCKET_COUNT + 1] = Math.max(retired[BUCKET_COUNT + 1], recorder.counts.get(BUCKET_COUNT + 1));
+                it.remove();
+            }
+        }
+    }
+
+    // number of per-thread recorders currently kept
+    int recorderCount() {
+        synchronized (recorders) {
+            return recorders.size();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long sum = 0;
+        long max = 0;
+        synchronized (recorders) {
+            retireTerminated();
+            if (retired != null) {
+                System.arraycopy(retired, 0, counts, 0, BUCKET_COUNT);
+                sum = retired[BUCKET_COUNT];
+                max = retired[BUCKET_COUNT + 1];
+            }
+            for (Recorder recorder : recorders) {
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    counts[i] += recorder.counts.get(i);
+                }
+                sum += recorder.counts.get(BUCKET_COUNT);
+                max = Math.max(max, recorder.counts.get(BUCKET_COUNT + 1));
+            }
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            this.max = max;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long count() {
+            return totalCount;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+        }
+
+        /**
+         * Returns the smallest recorded bucket bound such that the given percentage
+         * (0..100) of recorded values are less than or equal to it.
+         */
+        public long valueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double fraction = Math.min(Math.max(percentile, 0.0), 100.0) / 100.0;
+            long rank = Math.max(1, (long) Math.ceil(fraction * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + totalCount
+                    + " mean=" + String.format("%.1f", mean())
+                    + " p50=" + valueAtPercentile(50)
+                    + " p90=" + valueAtPercentile(90)
+                    + " p99=" + valueAtPercentile(99)
+                    + " p99.9=" + valueAtPercentile(99.9)
+                    + " max=" + max;
+        }
+    }
+}
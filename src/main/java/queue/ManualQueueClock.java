@@ -0,0 +1,30 @@
+package queue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock that only moves when told to, for deterministic tests of time-aware queues.
+ */
+public class ManualQueueClock implements QueueClock {
+    private volatile long nanos;
+
+    public ManualQueueClock() {
+    }
+
+    public ManualQueueClock(long nanos) {
+        this.nanos = nanos;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public synchronized void advance(long duration, TimeUnit unit) {
+        nanos += unit.toNanos(duration);
+    }
+
+    public void set(long nanos) {
+        this.nanos = nanos;
+    }
+}
@@ -0,0 +1,199 @@
+package queue;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks the effective capacity of registered queues while the heap is under pressure and
+ * restores it once the pressure clears, so that queues sized for the worst case give memory
+ * back during a spike.
+ * <p>
+ * Pressure is measured on the heap pools that report usage after collection, normally the old
+ * generation: the monitor sets their collection usage threshold to {@code highUsage} of the
+ * pool maximum and listens to the threshold notifications, and re-checks the usage after
+ * every collection through the garbage collectors' notifications. The thresholds are JVM-wide,
+ * so {@link #close()} puts back the ones it replaced unless someone else changed them since.
+ * The queues shrink when the
+ * usage after a collection reaches {@code highUsage} and grow back only when it drops below
+ * {@code lowUsage}, so usage hovering around one threshold does not flap the capacities.
+ * <p>
+ * Shrinking keeps {@code keepFraction} of each capacity and drops the oldest elements above it
+ * one at a time on the notification thread, producers never check the memory state.
+ * {@link MostRecentlyInsertedQueue} is not thread-safe, so it only picks up the new limit
+ * and trims on its next offer. Queues are held weakly and need no unregistering.
+ */
+public class MemoryPressureMonitor implements AutoCloseable {
+    private final double highUsage;
+    private final double lowUsage;
+    private final double keepFraction;
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    // per watched pool, the threshold found there and the one this monitor set
+    private final List<long[]> thresholds = new ArrayList<>();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = this::handleNotification;
+
+    // guarded by this
+    private final List<WeakReference<Object>> queues = new ArrayList<>();
+    private boolean underPressure;
+    private long pressureCount;
+
+    public MemoryPressureMonitor(double highUsage, double lowUsage, double keepFraction) {
+        if (!(highUsage > 0 && highUsage < 1) || !(lowUsage > 0 && lowUsage < highUsage)
+                || !(keepFraction > 0 && keepFraction < 1)) {
+            throw new IllegalArgumentException();
+        }
+        this.highUsage = highUsage;
+        this.lowUsage = lowUsage;
+        this.keepFraction = keepFraction;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.getUsage().getMax() > 0) {
+                long previous = pool.getCollectionUsageThreshold();
+                long threshold = (long) (pool.getUsage().getMax() * highUsage);
+                pool.setCollectionUsageThreshold(threshold);
+                pools.add(pool);
+                thresholds.add(new long[]{previous, threshold});
+            }
+        }
+        listen(ManagementFactory.getMemoryMXBean());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            listen(collector);
+        }
+    }
+
+    private void listen(Object bean) {
+        if (bean instanceof NotificationEmitter) {
+            NotificationEmitter emitter = (NotificationEmitter) bean;
+            emitter.addNotificationListener(listener, null, null);
+            emitters.add(emitter);
+        }
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        // memory notifications other than the collection threshold come before a collection
+        if (notification.getType().startsWith("java.management.memory")
+                && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            return;
+        }
+        update(usageAfterCollection());
+    }
+
+    // highest fraction of its maximum that a watched pool used after its last collection
+    private double usageAfterCollection() {
+        double highest = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && usage.getMax() > 0) {
+                highest = Math.max(highest, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+        return highest;
+    }
+
+    /** Applies the usage observed after a collection, as a fraction of the maximum. */
+    synchronized void update(double usage) {
+        if (!underPressure && usage >= highUsage) {
+            underPressure = true;
+            pressureCount++;
+            scaleAll(keepFraction);
+        } else if (underPressure && usage < lowUsage) {
+            underPressure = false;
+            scaleAll(1);
+        }
+    }
+
+    public synchronized boolean isUnderPressure() {
+        return underPressure;
+    }
+
+    /** Number of times the queues were shrunk. */
+    public synchronized long pressureCount() {
+        return pressureCount;
+    }
+
+    public void register(MostRecentlyInsertedQueue<?> queue) {
+        add(queue);
+    }
+
+    public void register(ConcurrentMostRecentlyInsertedQueue<?> queue) {
+        add(queue);
+    }
+
+    public void register(MostRecentlyInsertedBlockingQueue<?> queue) {
+        add(queue);
+    }
+
+    private synchronized void add(Object queue) {
+        if (queue == null) throw new NullPointerException();
+        queues.add(new WeakReference<>(queue));
+        if (underPressure) {
+            scale(queue, keepFraction);
+        }
+    }
+
+    // must be called holding this
+    private void scaleAll(double fraction) {
+        for (Iterator<WeakReference<Object>> it = queues.iterator(); it.hasNext(); ) {
+            Object queue = it.next().get();
+            if (queue == null) {
+                it.remove();
+            } else {
+                scale(queue, fraction);
+            }
+        }
+    }
+
+    private static void scale(Object queue, double fraction) {
+        if (queue instanceof MostRecentlyInsertedBlockingQueue) {
+            ((MostRecentlyInsertedBlockingQueue<?>) queue).scaleCapacity(fraction);
+        } else if (queue instanceof ConcurrentMostRecentlyInsertedQueue) {
+            ((ConcurrentMostRecentlyInsertedQueue<?>) queue).scaleCapacity(fraction);
+        } else {
+            ((MostRecentlyInsertedQueue<?>) queue).scaleCapacity(fraction);
+        }
+    }
+
+    /**
+     * Stops listening, restores the collection usage thresholds this monitor replaced and the
+     * capacities of the registered queues.
+     */
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < pools.size(); i++) {
+            MemoryPoolMXBean pool = pools.get(i);
+            long[] threshold = thresholds.get(i);
+            // a threshold set by someone else after this monitor is theirs to keep
+            if (pool.getCollectionUsageThreshold() == threshold[1]) {
+                pool.setCollectionUsageThreshold(threshold[0]);
+            }
+        }
+        pools.clear();
+        thresholds.clear();
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException ignored) {
+                // already removed
+            }
+        }
+        emitters.clear();
+        if (underPressure) {
+            underPressure = false;
+            scaleAll(1);
+        }
+        queues.clear();
+    }
+}
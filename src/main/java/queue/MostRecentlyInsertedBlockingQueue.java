@@ -7,6 +7,7 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -14,13 +15,114 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
     private static class Node<E> {
         E element;
         Node<E> next;
+        Node<E> prev;
 
         Node(E element) {
             this.element = element;
         }
+
+        // insertion stamp, only the nodes of timestamped queues keep one
+        long time() {
+            return 0L;
+        }
+
+        void stamp(long time) {
+        }
+    }
+
+    // only allocated by timestamped queues, so the other queues keep the smaller node
+    private static class TimedNode<E> extends Node<E> {
+        long time;
+
+        TimedNode(E element) {
+            super(element);
+        }
+
+        @Override
+        long time() {
+            return time;
+        }
+
+        @Override
+        void stamp(long time) {
+            this.time = time;
+        }
+    }
+
+    // only allocated by weight-bounded queues, so the other queues keep the smaller node
+    private static class WeightedNode<E> extends Node<E> {
+        final int weight;
+
+        WeightedNode(E element, int weight) {
+            super(element);
+            this.weight = weight;
+        }
+    }
+
+    // allocated by timestamped weight-bounded queues, group members among them
+    private static class TimedWeightedNode<E> extends WeightedNode<E> {
+        long time;
+
+        TimedWeightedNode(E element, int weight) {
+            super(element, weight);
+        }
+
+        @Override
+        long time() {
+            return time;
+        }
+
+        @Override
+        void stamp(long time) {
+            this.time = time;
+        }
     }
 
-    private final int capacity;
+    // only allocated by indexed queues, links the live nodes of equal elements in a circular
+    // list in insertion order, the index maps the element to the oldest of them
+    private static class IndexedNode<E> extends WeightedNode<E> {
+        IndexedNode<E> sameNext;
+        IndexedNode<E> samePrev;
+
+        IndexedNode(E element, int weight) {
+            super(element, weight);
+        }
+    }
+
+    // allocated by timestamped indexed queues
+    private static class TimedIndexedNode<E> extends IndexedNode<E> {
+        long time;
+
+        TimedIndexedNode(E element, int weight) {
+            super(element, weight);
+        }
+
+        @Override
+        long time() {
+            return time;
+        }
+
+        @Override
+        void stamp(long time) {
+            this.time = time;
+        }
+    }
+
+    // allocated by offerWithTtl whatever the kind of queue, so it carries every optional
+    // field, and the expiration that is cancelled once the node is removed
+    private static final class ExpiringNode<E> extends TimedIndexedNode<E> {
+        Expiration<E> expiration;
+
+        ExpiringNode(E element, int weight) {
+            super(element, weight);
+        }
+    }
+
+    // written holding both locks: the capacity, the fraction of it kept, lowered by a
+    // MemoryPressureMonitor, and the effective capacity
+    private volatile int capacity;
+    private double scale = 1;
+    private volatile int limit;
     private final AtomicInteger count = new AtomicInteger();
 
     private Node<E> head;
@@ -30,24 +132,638 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
     private final Condition notEmpty = takeLock.newCondition();
 
     private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notFull = putLock.newCondition();
+
+    private final OverflowPolicy policy;
+    private final long maxBlockNanos;
+    // whether producers may wait on notFull, consumers only signal it then
+    private final boolean blocking;
+
+    // guarded by its own monitor, producers and consumers both update it
+    private final OpenHashIndex<E, IndexedNode<E>> index;
+
+    private final Weigher<? super E> weigher;
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+
+    // set for members of a group, which is charged for every linked element, written holding
+    // both locks and cleared when the queue leaves the group
+    private volatile QueueGroup group;
+    private final long groupFloor;
+
+    private final QueueLatencyStats stats;
+    private final QueueClock clock;
+    private final long maxAgeNanos;
+    private final boolean timestamped;
+
+    // written holding putLock, takeLock and takeLock respectively, read by ConsumerWatchdog
+    private volatile long evictionCount;
+    private volatile long expiredCount;
+    private volatile long consumedCount;
+
+    /**
+     * Collects the optional features of a queue, any of which can be combined: expiration,
+     * latency stats, a weight bound, an overflow policy and an element index. The setters
+     * check their arguments at once, {@link #build} creates the queue.
+     */
+    public static final class Builder<E> {
+        private final int capacity;
+        private long maxAgeNanos = Long.MAX_VALUE;
+        private QueueClock clock = QueueClock.SYSTEM;
+        private QueueLatencyStats stats;
+        private long maxWeight = Long.MAX_VALUE;
+        private Weigher<? super E> weigher;
+        private OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+        private long maxBlockNanos;
+        private ElementIndex index = ElementIndex.NONE;
+        private QueueGroup group;
+        private long groupFloor;
+
+        private Builder(int capacity) {
+            if (capacity <= 0) throw new IllegalArgumentException();
+            this.capacity = capacity;
+        }
+
+        /**
+         * Makes a sliding window: no element older than {@code maxAge} is returned. Elements
+         * are expired lazily on offer, poll, peek, take, drain and iteration; {@code size()}
+         * may include expired elements until then.
+         */
+        public Builder<E> maxAge(long maxAge, TimeUnit unit) {
+            if (maxAge <= 0) throw new IllegalArgumentException();
+            this.maxAgeNanos = unit.toNanos(maxAge);
+            return this;
+        }
+
+        /**
+         * Sets the clock measuring element age and residency, lock wait and hold times are
+         * always measured with {@code System.nanoTime()}.
+         */
+        public Builder<E> clock(QueueClock clock) {
+            if (clock == null) throw new NullPointerException();
+            this.clock = clock;
+            return this;
+        }
+
+        /** Records latency stats into {@code stats}, or none if it is null. */
+        public Builder<E> latencyStats(QueueLatencyStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        /**
+         * Bounds the sum of the weights of the elements as well. An offer evicts as many of
+         * the oldest elements as needed to fit the new one; an element heavier than
+         * {@code maxWeight} is rejected with an IllegalArgumentException. Weights are
+         * computed once on insertion.
+         */
+        public Builder<E> maxWeight(long maxWeight, Weigher<? super E> weigher) {
+            if (maxWeight <= 0) throw new IllegalArgumentException();
+            if (weigher == null) throw new NullPointerException();
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /** Handles insertions into the full queue with the given policy instead of dropping the oldest. */
+        public Builder<E> overflowPolicy(OverflowPolicy policy) {
+            return overflowPolicy(policy, 0, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Handles insertions into the full queue with the given policy. {@code maxBlock} is
+         * how long {@link OverflowPolicy#BLOCK_THEN_DROP_OLDEST} lets a producer wait for
+         * consumers before evicting, the other policies ignore it.
+         */
+        public Builder<E> overflowPolicy(OverflowPolicy policy, long maxBlock, TimeUnit unit) {
+            if (policy == null) throw new NullPointerException();
+            if (maxBlock < 0) throw new IllegalArgumentException();
+            this.policy = policy;
+            this.maxBlockNanos = unit.toNanos(maxBlock);
+            return this;
+        }
+
+        /**
+         * Keeps a side index of the live elements, so that {@code contains} and
+         * {@code remove(Object)} are O(1) and hold the locks only briefly. The index costs a
+         * larger node and a short critical section on every insertion and removal.
+         */
+        public Builder<E> elementIndex(ElementIndex index) {
+            if (index == null) throw new NullPointerException();
+            this.index = index;
+            return this;
+        }
+
+        // makes the queue a member of the group, see QueueGroup#newQueue
+        Builder<E> group(QueueGroup group, long floor) {
+            this.group = group;
+            this.groupFloor = floor;
+            return this;
+        }
+
+        public MostRecentlyInsertedBlockingQueue<E> build() {
+            return new MostRecentlyInsertedBlockingQueue<>(this);
+        }
+    }
+
+    /** Returns a builder for a queue holding at most {@code capacity} elements. */
+    public static <E> Builder<E> builder(int capacity) {
+        return new Builder<>(capacity);
+    }
 
     public MostRecentlyInsertedBlockingQueue(int capacity) {
-        if (capacity <= 0) throw new IllegalArgumentException();
-        this.capacity = capacity;
+        this(new Builder<E>(capacity));
+    }
+
+    public MostRecentlyInsertedBlockingQueue(int capacity, QueueLatencyStats stats) {
+        this(new Builder<E>(capacity).latencyStats(stats));
+    }
+
+    /** Creates a queue recording latency stats, see {@link Builder#clock}. */
+    public MostRecentlyInsertedBlockingQueue(int capacity, QueueLatencyStats stats, QueueClock clock) {
+        this(new Builder<E>(capacity).latencyStats(stats).clock(clock));
+    }
+
+    public MostRecentlyInsertedBlockingQueue(int capacity, long maxAge, TimeUnit unit) {
+        this(new Builder<E>(capacity).maxAge(maxAge, unit));
+    }
+
+    public MostRecentlyInsertedBlockingQueue(int capacity, long maxAge, TimeUnit unit, QueueClock clock) {
+        this(new Builder<E>(capacity).maxAge(maxAge, unit).clock(clock));
+    }
+
+    /** Creates a sliding-window queue, see {@link Builder#maxAge}. */
+    public MostRecentlyInsertedBlockingQueue(int capacity, long maxAge, TimeUnit unit, QueueClock clock,
+                                             QueueLatencyStats stats) {
+        this(new Builder<E>(capacity).maxAge(maxAge, unit).clock(clock).latencyStats(stats));
+    }
+
+    /** Creates a queue bounded by weight as well, see {@link Builder#maxWeight}. */
+    public MostRecentlyInsertedBlockingQueue(int capacity, long maxWeight, Weigher<? super E> weigher) {
+        this(new Builder<E>(capacity).maxWeight(maxWeight, weigher));
+    }
+
+    public MostRecentlyInsertedBlockingQueue(int capacity, OverflowPolicy policy) {
+        this(new Builder<E>(capacity).overflowPolicy(policy));
+    }
+
+    /** Creates a queue with an overflow policy, see {@link Builder#overflowPolicy(OverflowPolicy, long, TimeUnit)}. */
+    public MostRecentlyInsertedBlockingQueue(int capacity, OverflowPolicy policy, long maxBlock, TimeUnit unit) {
+        this(new Builder<E>(capacity).overflowPolicy(policy, maxBlock, unit));
+    }
+
+    /** Creates an indexed queue, see {@link Builder#elementIndex}. */
+    public MostRecentlyInsertedBlockingQueue(int capacity, ElementIndex index) {
+        this(new Builder<E>(capacity).elementIndex(index));
+    }
+
+    private MostRecentlyInsertedBlockingQueue(Builder<E> builder) {
+        this.capacity = builder.capacity;
+        this.limit = builder.capacity;
+        this.index = (builder.index == ElementIndex.NONE) ? null
+                : new OpenHashIndex<E, IndexedNode<E>>(builder.index == ElementIndex.IDENTITY);
+        this.policy = builder.policy;
+        this.maxBlockNanos = builder.maxBlockNanos;
+        this.blocking = policy == OverflowPolicy.BLOCK || policy == OverflowPolicy.BLOCK_THEN_DROP_OLDEST;
+        this.maxWeight = builder.maxWeight;
+        this.weigher = builder.weigher;
+        this.stats = builder.stats;
+        this.clock = builder.clock;
+        this.maxAgeNanos = builder.maxAgeNanos;
+        this.group = builder.group;
+        this.groupFloor = builder.groupFloor;
+        // the group compares the stamps of the members' oldest elements
+        this.timestamped = stats != null || maxAgeNanos != Long.MAX_VALUE || group != null;
         tail = head = new Node<>(null);
     }
 
+    public QueueLatencyStats latencyStats() {
+        return stats;
+    }
+
+    public long evictionCount() {
+        return evictionCount + expiredCount;
+    }
+
+    public long consumedCount() {
+        return consumedCount;
+    }
+
+    public OverflowPolicy overflowPolicy() {
+        return policy;
+    }
+
+    /** Sum of the weights of the queued elements, zero unless the queue has a weigher. */
+    public long weight() {
+        return weight.get();
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    private Node<E> newNode(E element) {
+        if (weigher == null && index == null) {
+            return timestamped ? new TimedNode<>(element) : new Node<>(element);
+        }
+        int elementWeight = weigh(element);
+        if (index != null) {
+            return timestamped ? new TimedIndexedNode<>(element, elementWeight) : new IndexedNode<>(element, elementWeight);
+        }
+        return timestamped ? new TimedWeightedNode<>(element, elementWeight) : new WeightedNode<>(element, elementWeight);
+    }
+
+    private int weigh(E element) {
+        if (weigher == null) {
+            return 0;
+        }
+        int elementWeight = weigher.weigh(element);
+        if (elementWeight < 0 || elementWeight > maxWeight) {
+            throw new IllegalArgumentException("element weight " + elementWeight + " does not fit in " + maxWeight);
+        }
+        return elementWeight;
+    }
+
+    // called when a node is removed, a node offered with a time-to-live drops its timer entry
+    private static void cancelExpiration(Node<?> node) {
+        if (node instanceof ExpiringNode) {
+            TimerWheel.shared().cancel(((ExpiringNode<?>) node).expiration);
+        }
+    }
+
+    // called when a node is linked, under putLock
+    private void indexAdd(Node<E> node) {
+        IndexedNode<E> added = (IndexedNode<E>) node;
+        synchronized (index) {
+            IndexedNode<E> oldest = index.get(added.element);
+            if (oldest == null) {
+                added.sameNext = added.samePrev = added;
+                index.put(added.element, added);
+            } else {
+                IndexedNode<E> newest = oldest.samePrev;
+                newest.sameNext = added;
+                added.samePrev = newest;
+                added.sameNext = oldest;
+                oldest.samePrev = added;
+            }
+        }
+    }
+
+    // called when a node is unlinked, before its element is cleared
+    private void indexRemove(Node<E> node) {
+        IndexedNode<E> removed = (IndexedNode<E>) node;
+        synchronized (index) {
+            if (removed.sameNext == removed) {
+                index.remove(removed.element);
+            } else {
+                removed.samePrev.sameNext = removed.sameNext;
+                removed.sameNext.samePrev = removed.samePrev;
+                if (index.get(removed.element) == removed) {
+                    index.put(removed.element, removed.sameNext);
+                }
+            }
+            removed.sameNext = removed.samePrev = null;
+        }
+    }
+
+    private int weightOf(Node<E> node) {
+        return (weigher == null) ? 0 : ((WeightedNode<E>) node).weight;
+    }
+
+    private void releaseWeight(Node<E> node) {
+        if (weigher != null) {
+            weight.addAndGet(-((WeightedNode<E>) node).weight);
+        }
+        QueueGroup group = this.group;
+        if (group != null) {
+            group.charge(-groupUnits(node));
+        }
+    }
+
+    // what the element counts against the group budget: its weight, or 1 without a weigher
+    private long groupUnits(Node<E> node) {
+        return (weigher == null) ? 1 : ((WeightedNode<E>) node).weight;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity. Growing only raises the bound and wakes blocked producers;
+     * shrinking evicts the oldest elements above the new capacity one at a time, releasing the
+     * locks after each and letting queued threads go first. Meanwhile an insertion evicts a
+     * single element as usual, so a concurrent producer waits for at most one eviction.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        putLock.lock();
+        takeLock.lock();
+        try {
+            this.capacity = capacity;
+            limit = MostRecentlyInsertedQueue.scaled(capacity, scale);
+        } finally {
+            putLock.unlock();
+            takeLock.unlock();
+        }
+        trimToLimit();
+    }
+
+    /**
+     * Lowers the effective capacity to the fraction of the capacity, evicting the oldest
+     * elements above it, or restores it for a fraction of 1.
+     */
+    void scaleCapacity(double fraction) {
+        putLock.lock();
+        takeLock.lock();
+        try {
+            scale = fraction;
+            limit = MostRecentlyInsertedQueue.scaled(capacity, fraction);
+        } finally {
+            putLock.unlock();
+            takeLock.unlock();
+        }
+        trimToLimit();
+    }
+
+    private void trimToLimit() {
+        boolean surplus = true;
+        while (surplus) {
+            putLock.lock();
+            takeLock.lock();
+            try {
+                if (count.get() > limit) {
+                    long start = (stats != null) ? System.nanoTime() : 0L;
+                    dequeue();
+                    count.decrementAndGet();
+                    evictionCount++;
+                    if (stats != null) {
+                        stats.evictionLockHold().record(System.nanoTime() - start);
+                    }
+                }
+                surplus = count.get() > limit;
+                if (!surplus && blocking) {
+                    notFull.signalAll();
+                }
+            } finally {
+                putLock.unlock();
+                takeLock.unlock();
+            }
+            // the locks are not fair, without this the trimming thread could take them again
+            // ahead of a producer it just woke
+            while (surplus && (putLock.hasQueuedThreads() || takeLock.hasQueuedThreads())) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // stamp of the head element if the group may evict it, Long.MIN_VALUE otherwise
+    long evictableHeadTime() {
+        takeLock.lock();
+        try {
+            expire();
+            Node<E> first = head.next;
+            return (first == null || group == null || !aboveGroupFloor()) ? Long.MIN_VALUE : first.time();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    long groupFloor() {
+        return groupFloor;
+    }
+
+    // called by QueueGroup#unregister, discharges the queued elements from the group
+    void leaveGroup() {
+        putLock.lock();
+        takeLock.lock();
+        try {
+            QueueGroup group = this.group;
+            if (group != null) {
+                group.charge(-((weigher == null) ? count.get() : weight.get()));
+                this.group = null;
+            }
+        } finally {
+            putLock.unlock();
+            takeLock.unlock();
+        }
+    }
+
+    // called after an insertion, holding none of the locks
+    private void enforceGroup() {
+        QueueGroup group = this.group;
+        if (group != null) {
+            group.enforce();
+        }
+    }
+
+    private boolean aboveGroupFloor() {
+        return ((weigher == null) ? count.get() : weight.get()) > groupFloor;
+    }
+
+    // evicts the head element for the group unless the queue is at its floor, returns whether it did
+    boolean evictForGroup() {
+        int countBefore;
+        putLock.lock();
+        takeLock.lock();
+        try {
+            expire();
+            countBefore = count.get();
+            // a member that left the group may still be sampled by a concurrent enforce
+            if (group == null || countBefore == 0 || !aboveGroupFloor()) {
+                return false;
+            }
+            dequeue();
+            count.decrementAndGet();
+            evictionCount++;
+        } finally {
+            putLock.unlock();
+            takeLock.unlock();
+        }
+        if (mustSignalNotFull(countBefore)) {
+            signalNotFull();
+        }
+        return true;
+    }
+
+    // age of the head element, or -1 if elements are not timestamped
+    long oldestElementAgeNanos() {
+        if (!timestamped) {
+            return -1;
+        }
+        takeLock.lock();
+        try {
+            Node<E> first = head.next;
+            return (first == null) ? 0 : clock.nanoTime() - first.time();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
     private void enqueue(Node<E> node) {
+        if (weigher != null) {
+            weight.addAndGet(weightOf(node));
+        }
+        QueueGroup group = this.group;
+        if (group != null) {
+            group.charge(groupUnits(node));
+        }
+        if (index != null) {
+            indexAdd(node);
+        }
+        node.prev = tail;
         tail = tail.next = node;
     }
 
+    private boolean isFullFor(Node<E> node) {
+        return count.get() >= limit || isOverweightWith(node);
+    }
+
+    private boolean isOverweightWith(Node<E> node) {
+        return weigher != null && weight.get() + weightOf(node) > maxWeight;
+    }
+
+    // must be called holding both putLock and takeLock, evicts the oldest elements until the node fits
+    private void evictOldest(Node<E> node) {
+        long start = (stats != null) ? System.nanoTime() : 0L;
+        boolean evicted = false;
+        while (count.get() > 0 && isFullFor(node)) {
+            dequeue();
+            count.decrementAndGet();
+            evictionCount++;
+            evicted = true;
+            // a surplus left by a shrinking setCapacity is trimmed by setCapacity, not by producers
+            if (count.get() >= limit && !isOverweightWith(node)) {
+                break;
+            }
+        }
+        if (evicted && stats != null) {
+            stats.evictionLockHold().record(System.nanoTime() - start);
+        }
+    }
+
+    // must be called holding takeLock, drops elements older than maxAge from the head of the queue
+    private void expire() {
+        if (maxAgeNanos == Long.MAX_VALUE) {
+            return;
+        }
+        long now = clock.nanoTime();
+        while (count.get() > 0 && now - head.next.time() > maxAgeNanos) {
+            dequeue();
+            count.decrementAndGet();
+            expiredCount++;
+        }
+    }
+
+    // must be called holding takeLock
+    private int liveCount() {
+        expire();
+        return count.get();
+    }
+
+    // must be called holding putLock
+    private boolean hasRoomFor(Node<E> node) {
+        if (!isFullFor(node)) {
+            return true;
+        }
+        if (maxAgeNanos == Long.MAX_VALUE) {
+            return false;
+        }
+        takeLock.lock();
+        try {
+            expire();
+        } finally {
+            takeLock.unlock();
+        }
+        return !isFullFor(node);
+    }
+
+    // must be called holding putLock, whether the overflow policy lets the node in without waiting
+    private boolean admits(Node<E> node) {
+        if (policy == OverflowPolicy.DROP_OLDEST || policy == OverflowPolicy.BLOCK_THEN_DROP_OLDEST
+                || hasRoomFor(node)) {
+            return true;
+        }
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+            evictionCount++;
+        }
+        return false;
+    }
+
+    // must be called holding putLock, waits for room as long as the policy and the caller's nanos allow
+    private boolean admits(Node<E> node, long nanos) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                return awaitRoom(node, nanos);
+            case BLOCK_THEN_DROP_OLDEST:
+                awaitRoom(node, Math.min(nanos, maxBlockNanos));
+                return true;
+            default:
+                return admits(node);
+        }
+    }
+
+    private boolean awaitRoom(Node<E> node, long nanos) throws InterruptedException {
+        while (!hasRoomFor(node)) {
+            if (nanos <= 0) {
+                return false;
+            }
+            // expiring elements make room without a signal
+            long wait = Math.min(nanos, maxAgeNanos);
+            nanos -= wait - notFull.awaitNanos(wait);
+        }
+        return true;
+    }
+
+    // whether a consumer that removed elements from a queue holding countBefore has to wake producers
+    private boolean mustSignalNotFull(int countBefore) {
+        return blocking && (countBefore >= limit || weigher != null || maxAgeNanos != Long.MAX_VALUE);
+    }
+
+    // must be called holding putLock after an insert: a consumer that emptied several slots
+    // signalled only once, so like LinkedBlockingQueue the producer passes the signal on
+    private void signalNextProducer(int currentCount) {
+        if (blocking && currentCount < limit) {
+            notFull.signal();
+        }
+    }
+
+    // whether a producer has to take the takeLock to insert the node
+    private boolean mustLockHead(Node<E> node) {
+        return maxAgeNanos != Long.MAX_VALUE || isFullFor(node);
+    }
+
+    // called after putLock was acquired, stamps the node for residency tracking and expiration
+    private void recordPutLockAcquired(Node<E> node, long start) {
+        if (stats != null) {
+            stats.putLockWait().record(System.nanoTime() - start);
+        }
+        if (timestamped) {
+            node.stamp(clock.nanoTime());
+        }
+    }
+
+    // called right after dequeue() by consumers holding takeLock, head now holds the stamp of the removed node
+    private void recordConsumed() {
+        consumedCount++;
+        if (stats != null) {
+            stats.residency().record(clock.nanoTime() - head.time());
+        }
+    }
+
     private E dequeue() {
         Node<E> firstNode = head.next;
 
         head.next = head;
         head = firstNode;
+        firstNode.prev = null;
+        releaseWeight(firstNode);
+        if (index != null) {
+            indexRemove(firstNode);
+        }
         E removedElement = firstNode.element;
         firstNode.element = null;
+        cancelExpiration(firstNode);
 
         return removedElement;
     }
@@ -57,6 +773,17 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         putLock.lock();
         takeLock.lock();
         try {
+            if (index != null) {
+                IndexedNode<E> node;
+                synchronized (index) {
+                    node = index.get(object);
+                }
+                if (node == null) {
+                    return false;
+                }
+                unlink(node, node.prev);
+                return true;
+            }
             for (Node<E> currentNode = head, nextNode = currentNode.next;
                  nextNode != null;
                  currentNode = nextNode, nextNode = nextNode.next) {
@@ -72,6 +799,19 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         }
     }
 
+    @Override
+    public boolean contains(Object object) {
+        if (index == null) {
+            return super.contains(object);
+        }
+        if (object == null) {
+            return false;
+        }
+        synchronized (index) {
+            return index.get(object) != null;
+        }
+    }
+
     private void signalNotEmpty() {
         takeLock.lock();
         try {
@@ -81,13 +821,61 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         }
     }
 
+    private void signalNotFull() {
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    // must be called holding both putLock and takeLock
     void unlink(Node<E> nextNode, Node<E> currentNode) {
+        if (index != null) {
+            indexRemove(nextNode);
+        }
         nextNode.element = null;
-        currentNode.next = nextNode.next;
+        cancelExpiration(nextNode);
+        Node<E> after = nextNode.next;
+        currentNode.next = after;
+        if (after != null) {
+            after.prev = currentNode;
+        }
         if (tail == nextNode) {
             tail = currentNode;
         }
+        releaseWeight(nextNode);
         count.getAndDecrement();
+        if (blocking) {
+            notFull.signal();
+        }
+    }
+
+    private static class Expiration<E> extends TimerWheel.Entry {
+        private final MostRecentlyInsertedBlockingQueue<E> queue;
+        private final Node<E> node;
+
+        Expiration(MostRecentlyInsertedBlockingQueue<E> queue, Node<E> node) {
+            this.queue = queue;
+            this.node = node;
+        }
+
+        @Override
+        protected void expire() {
+            queue.putLock.lock();
+            queue.takeLock.lock();
+            try {
+                // a polled, evicted or removed node has no element any more
+                if (node.element != null) {
+                    queue.unlink(node, node.prev);
+                    queue.expiredCount++;
+                }
+            } finally {
+                queue.putLock.unlock();
+                queue.takeLock.unlock();
+            }
+        }
     }
 
     private class IteratorImpl implements Iterator<E> {
@@ -99,6 +887,7 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
             putLock.lock();
             takeLock.lock();
             try {
+                expire();
                 current = head.next;
                 if (current != null)
                     currentElement = current.element;
@@ -178,18 +967,21 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
     public void put(E element) throws InterruptedException {
         if (element == null) throw new NullPointerException();
 
-        Node<E> node = new Node<>(element);
+        Node<E> node = newNode(element);
         int currentCount = -1;
 
+        long start = (stats != null) ? System.nanoTime() : 0L;
         putLock.lockInterruptibly();
         try {
-            if (count.get() == capacity) {
+            recordPutLockAcquired(node, start);
+            if (!admits(node, Long.MAX_VALUE)) {
+                return;
+            }
+            if (mustLockHead(node)) {
                 takeLock.lockInterruptibly();
                 try {
-                    if (count.get() == capacity) {
-                        dequeue();
-                        count.decrementAndGet();
-                    }
+                    expire();
+                    evictOldest(node);
                 } finally {
                     takeLock.unlock();
                 }
@@ -197,6 +989,7 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
 
             enqueue(node);
             currentCount = count.incrementAndGet();
+            signalNextProducer(currentCount);
         } finally {
             putLock.unlock();
         }
@@ -204,32 +997,40 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         if (currentCount == 1) {
             signalNotEmpty();
         }
+        if (currentCount > 0) {
+            enforceGroup();
+        }
     }
 
     @Override
     public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
         if (element == null) throw new NullPointerException();
 
-        Node<E> node = new Node<>(element);
+        Node<E> node = newNode(element);
         int currentCount = -1;
 
-        if (!putLock.tryLock(timeout, unit)) {
+        long nanos = unit.toNanos(timeout);
+        long start = System.nanoTime();
+        if (!putLock.tryLock(nanos, TimeUnit.NANOSECONDS)) {
             return false;
         }
         try {
-            if (count.get() == capacity) {
+            recordPutLockAcquired(node, start);
+            if (!admits(node, nanos - (System.nanoTime() - start))) {
+                return false;
+            }
+            if (mustLockHead(node)) {
                 takeLock.lockInterruptibly();
                 try {
-                    if (count.get() == capacity) {
-                        dequeue();
-                        count.decrementAndGet();
-                    }
+                    expire();
+                    evictOldest(node);
                 } finally {
                     takeLock.unlock();
                 }
             }
             enqueue(node);
             currentCount = count.incrementAndGet();
+            signalNextProducer(currentCount);
         } finally {
             putLock.unlock();
         }
@@ -237,6 +1038,9 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         if (currentCount == 1) {
             signalNotEmpty();
         }
+        if (currentCount > 0) {
+            enforceGroup();
+        }
 
         return true;
     }
@@ -245,20 +1049,29 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
     @Override
     public E take() throws InterruptedException {
         E removedElement;
+        int currentCount;
 
+        long start = (stats != null) ? System.nanoTime() : 0L;
         takeLock.lockInterruptibly();
         try {
-            while (count.get() == 0) {
+            while (liveCount() == 0) {
                 notEmpty.await();
             }
             removedElement = dequeue();
-            int currentCount = count.decrementAndGet();
+            recordConsumed();
+            currentCount = count.decrementAndGet();
             if (currentCount > 0) {
                 notEmpty.signalAll();
             }
         } finally {
             takeLock.unlock();
         }
+        if (mustSignalNotFull(currentCount + 1)) {
+            signalNotFull();
+        }
+        if (stats != null) {
+            stats.takeWait().record(System.nanoTime() - start);
+        }
 
         return removedElement;
     }
@@ -266,30 +1079,41 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
     @Override
     public E poll(long timeout, TimeUnit unit) throws InterruptedException {
         E removedElement = null;
+        int currentCount = -1;
         long nanos = unit.toNanos(timeout);
+        long start = (stats != null) ? System.nanoTime() : 0L;
         takeLock.lockInterruptibly();
         try {
-            while (count.get() == 0) {
+            while (liveCount() == 0) {
                 if (nanos <= 0)
-                    return null;
+                    break;
                 nanos = notEmpty.awaitNanos(nanos);
             }
-            removedElement = dequeue();
-            int currentCount = count.decrementAndGet();
+            if (count.get() > 0) {
+                removedElement = dequeue();
+                recordConsumed();
+                currentCount = count.decrementAndGet();
 
-            if (currentCount > 0) {
-                notEmpty.signalAll();
+                if (currentCount > 0) {
+                    notEmpty.signalAll();
+                }
             }
         } finally {
             takeLock.unlock();
         }
+        if (removedElement != null && mustSignalNotFull(currentCount + 1)) {
+            signalNotFull();
+        }
+        if (stats != null) {
+            stats.takeWait().record(System.nanoTime() - start);
+        }
 
         return removedElement;
     }
 
     @Override
     public int remainingCapacity() {
-        return capacity - count.get();
+        return Math.max(0, limit - count.get());
     }
 
     @Override
@@ -306,51 +1130,91 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         if (maxElements <= 0)
             return 0;
         final ReentrantLock takeLock = this.takeLock;
+        int numberOfElements;
+        int countBefore;
         takeLock.lock();
         try {
-            int numberOfElements = Math.min(maxElements, count.get());
+            numberOfElements = Math.min(maxElements, liveCount());
+            countBefore = count.get();
             int drainCount = 0;
 
             while (drainCount < numberOfElements) {
                 Node<E> currentNode = head.next;
                 collection.add(currentNode.element);
+                if (index != null) {
+                    indexRemove(currentNode);
+                }
                 currentNode.element = null;
+                cancelExpiration(currentNode);
                 head.next = head;
                 head = currentNode;
+                currentNode.prev = null;
+                releaseWeight(currentNode);
+                recordConsumed();
                 drainCount += 1;
             }
 
             if (count.addAndGet(-drainCount) > 0) {
                 notEmpty.signalAll();
             }
-            return numberOfElements;
         } finally {
             takeLock.unlock();
         }
+        if (numberOfElements > 0 && mustSignalNotFull(countBefore)) {
+            signalNotFull();
+        }
+        return numberOfElements;
     }
 
     @Override
     public boolean offer(E element) {
         if (element == null) throw new NullPointerException();
 
+        return insert(newNode(element));
+    }
+
+    /**
+     * Inserts the element and removes it again once the time-to-live passed, unless it was
+     * consumed or evicted before. Expired elements are unlinked by the shared {@link TimerWheel}
+     * without scanning the queue, so {@code size()} only counts live elements; consuming,
+     * evicting or removing the element cancels its timer.
+     */
+    public boolean offerWithTtl(E element, long ttl, TimeUnit unit) {
+        if (element == null) throw new NullPointerException();
+
+        ExpiringNode<E> node = new ExpiringNode<>(element, weigh(element));
+        Expiration<E> expiration = new Expiration<>(this, node);
+        // set before the node can be removed, a timer cancelled before it is scheduled never runs
+        node.expiration = expiration;
+        if (!insert(node)) {
+            return false;
+        }
+        TimerWheel.shared().schedule(expiration, ttl, unit);
+        return true;
+    }
+
+    private boolean insert(Node<E> node) {
         int currentCount = -1;
-        Node<E> node = new Node<>(element);
 
+        long start = (stats != null) ? System.nanoTime() : 0L;
         putLock.lock();
         try {
-            if (count.get() == capacity) {
+            recordPutLockAcquired(node, start);
+            if (!admits(node)) {
+                return false;
+            }
+            if (mustLockHead(node)) {
                 takeLock.lock();
                 try {
-                    if (count.get() == capacity) {
-                        dequeue();
-                        count.decrementAndGet();
-                    }
+                    expire();
+                    evictOldest(node);
                 } finally {
                     takeLock.unlock();
                 }
             }
             enqueue(node);
             currentCount = count.incrementAndGet();
+            signalNextProducer(currentCount);
         } finally {
             putLock.unlock();
         }
@@ -358,7 +1222,9 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         if (currentCount == 1) {
             signalNotEmpty();
         }
-
+        if (currentCount > 0) {
+            enforceGroup();
+        }
         return true;
     }
 
@@ -367,11 +1233,13 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         if (count.get() == 0)
             return null;
         E element = null;
+        int currentCount = -1;
         takeLock.lock();
         try {
-            if (count.get() > 0) {
+            if (liveCount() > 0) {
                 element = dequeue();
-                int currentCount = count.decrementAndGet();
+                recordConsumed();
+                currentCount = count.decrementAndGet();
                 if (currentCount > 0) {
                     notEmpty.signalAll();
                 }
@@ -379,6 +1247,9 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
         } finally {
             takeLock.unlock();
         }
+        if (element != null && mustSignalNotFull(currentCount + 1)) {
+            signalNotFull();
+        }
 
         return element;
     }
@@ -389,6 +1260,7 @@ public class MostRecentlyInsertedBlockingQueue<E> extends AbstractQueue<E> imple
             return null;
         takeLock.lock();
         try {
+            expire();
             Node<E> first = head.next;
             if (first == null)
                 return null;
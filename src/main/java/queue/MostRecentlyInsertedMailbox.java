@@ -0,0 +1,250 @@
+package queue;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free capacity-1 specialization of {@link MostRecentlyInsertedBlockingQueue}: a mailbox
+ * holding only the latest offered element.
+ * <p>
+ * {@code offer} swaps the element into a single slot, evicting the one it replaces, and
+ * {@code poll} swaps the slot back to null; neither locks nor allocates. A consumer blocked in
+ * {@code take} publishes itself on a stack of parked waiters, which the next offer unparks.
+ * An instance is a few fields, against two locks, a condition, an atomic counter and a
+ * sentinel node for the general queue.
+ */
+public class MostRecentlyInsertedMailbox<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MostRecentlyInsertedMailbox, Object> SLOT =
+            AtomicReferenceFieldUpdater.newUpdater(MostRecentlyInsertedMailbox.class, Object.class, "slot");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MostRecentlyInsertedMailbox, Waiter> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(MostRecentlyInsertedMailbox.class, Waiter.class, "waiters");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<MostRecentlyInsertedMailbox> EVICTIONS =
+            AtomicLongFieldUpdater.newUpdater(MostRecentlyInsertedMailbox.class, "evictionCount");
+
+    private static final class Waiter {
+        final Thread thread;
+        Waiter next;
+        // set by the waiting thread before the push, cleared by the thread that takes the
+        // waiter off the stack once it read next
+        volatile boolean queued;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private volatile Object slot;
+    private volatile Waiter waiters;
+    private volatile long evictionCount;
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /** Replaces the held element, never blocks. */
+    @Override
+    public boolean offer(E element) {
+        if (element == null) throw new NullPointerException();
+        if (SLOT.getAndSet(this, element) != null) {
+            EVICTIONS.incrementAndGet(this);
+        }
+        if (waiters != null) {
+            // wakes every waiter, those that lose the race for the element park again
+            wakeAll();
+        }
+        return true;
+    }
+
+    // takes every waiter off the stack and unparks it
+    private void wakeAll() {
+        Waiter waiter = WAITERS.getAndSet(this, null);
+        while (waiter != null) {
+            Waiter next = waiter.next;
+            waiter.queued = false;
+            LockSupport.unpark(waiter.thread);
+            waiter = next;
+        }
+    }
+
+    /** Never blocks, the mailbox makes room by eviction. */
+    @Override
+    public void put(E element) {
+        offer(element);
+    }
+
+    /** Never blocks, the mailbox makes room by eviction. */
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) {
+        return offer(element);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        return (slot == null) ? null : (E) SLOT.getAndSet(this, null);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return await(false, 0L);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, unit.toNanos(timeout));
+    }
+
+    private E await(boolean timed, long nanos) throws InterruptedException {
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        // one waiter per call, pushed again only once an offer took it off the stack
+        Waiter waiter = null;
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                E element = poll();
+                if (element != null) {
+                    return element;
+                }
+                if (timed && (nanos = deadline - System.nanoTime()) <= 0) {
+                    return null;
+                }
+                if (waiter == null) {
+                    waiter = new Waiter(Thread.currentThread());
+                }
+                if (!waiter.queued) {
+                    waiter.queued = true;
+                    Waiter head;
+                    do {
+                        head = waiters;
+                        waiter.next = head;
+                    } while (!WAITERS.compareAndSet(this, head, waiter));
+                    // an offer that completed before the push did not see the waiter
+                    continue;
+                }
+                if (timed) {
+                    LockSupport.parkNanos(this, nanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            if (waiter != null && waiter.queued) {
+                // a waiter cannot be unlinked from the middle of the stack, so this takes the
+                // whole stack off; the other waiters find no element and push themselves again
+                wakeAll();
+            }
+        }
+    }
+
+    // number of waiters on the stack, read by tests
+    int waiterCount() {
+        int n = 0;
+        for (Waiter waiter = waiters; waiter != null; waiter = waiter.next) {
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        return (E) slot;
+    }
+
+    @Override
+    public int size() {
+        return (slot == null) ? 0 : 1;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return (slot == null) ? 1 : 0;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        if (object == null) return false;
+        Object current;
+        while ((current = slot) != null && object.equals(current)) {
+            if (SLOT.compareAndSet(this, current, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        slot = null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == null)
+            throw new NullPointerException();
+        if (collection == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        E element = poll();
+        if (element == null) {
+            return 0;
+        }
+        collection.add(element);
+        return 1;
+    }
+
+    private class IteratorImpl implements Iterator<E> {
+        private E next;
+        private E lastRet;
+
+        private IteratorImpl(E next) {
+            this.next = next;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastRet = next;
+            next = null;
+            return lastRet;
+        }
+
+        public void remove() {
+            if (lastRet == null)
+                throw new IllegalStateException();
+            // removes the element only if no newer one replaced it
+            SLOT.compareAndSet(MostRecentlyInsertedMailbox.this, lastRet, null);
+            lastRet = null;
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        E element = peek();
+        return (element == null) ? Collections.<E>emptyIterator() : new IteratorImpl(element);
+    }
+}
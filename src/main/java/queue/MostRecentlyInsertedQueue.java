@@ -4,48 +4,205 @@ import java.util.AbstractQueue;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 public class MostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Queue<E> {
 
     private static class Node<E> {
         E element;
         Node<E> next;
+        Node<E> prev;
 
         Node(E element) {
             this.element = element;
         }
     }
 
+    // only allocated by timestamped queues, so the other queues keep the smaller node
+    private static class TimedNode<E> extends Node<E> {
+        final long time;
+
+        TimedNode(E element, long time) {
+            super(element);
+            this.time = time;
+        }
+    }
+
     private Node<E> head;
     private Node<E> tail;
 
-    private final int capacity;
+    private volatile int capacity;
+    // fraction of the capacity kept, the only field a MemoryPressureMonitor writes
+    private volatile double scale = 1;
+    // the scale applied to the capacity and the resulting effective capacity, which offers
+    // trim the queue down to; both are written by the owner thread only
+    private double appliedScale = 1;
+    private int limit;
     private int count;
 
+    private final QueueAgeStats stats;
+    private final QueueClock clock;
+    private final long maxAgeNanos;
+    private final boolean timestamped;
+    // element to node, only in dedupe mode
+    private final OpenHashIndex<E, Node<E>> index;
+    // occurrences per element, built by the first offerIfAbsent of a queue without dedupe
+    private OpenHashCounter counter;
+
     public MostRecentlyInsertedQueue(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a queue that, with {@code dedupe}, holds every element at most once: offering an
+     * element that is already queued moves it to the tail as the most recent one instead of
+     * storing it twice. A hash index from element to node makes that re-insert, as well as
+     * {@code contains} and {@code remove(Object)}, O(1).
+     */
+    public MostRecentlyInsertedQueue(int capacity, boolean dedupe) {
+        this(capacity, Long.MAX_VALUE, QueueClock.SYSTEM, null, dedupe);
+    }
+
+    public MostRecentlyInsertedQueue(int capacity, QueueAgeStats stats) {
+        this(capacity, stats, QueueClock.SYSTEM);
+    }
+
+    public MostRecentlyInsertedQueue(int capacity, QueueAgeStats stats, QueueClock clock) {
+        this(capacity, Long.MAX_VALUE, clock, stats);
+    }
+
+    public MostRecentlyInsertedQueue(int capacity, long maxAge, TimeUnit unit) {
+        this(capacity, maxAge, unit, QueueClock.SYSTEM, null);
+    }
+
+    public MostRecentlyInsertedQueue(int capacity, long maxAge, TimeUnit unit, QueueClock clock) {
+        this(capacity, maxAge, unit, clock, null);
+    }
+
+    /**
+     * Creates a sliding-window queue that holds at most {@code capacity} elements, none of
+     * them older than {@code maxAge}. Elements are expired lazily on offer, poll, peek, size
+     * and iteration.
+     */
+    public MostRecentlyInsertedQueue(int capacity, long maxAge, TimeUnit unit, QueueClock clock,
+                                     QueueAgeStats stats) {
+        this(capacity, positive(maxAge, unit), clock, stats);
+    }
+
+    private MostRecentlyInsertedQueue(int capacity, long maxAgeNanos, QueueClock clock, QueueAgeStats stats) {
+        this(capacity, maxAgeNanos, clock, stats, false);
+    }
+
+    private MostRecentlyInsertedQueue(int capacity, long maxAgeNanos, QueueClock clock, QueueAgeStats stats,
+                                      boolean dedupe) {
         if (capacity <= 0) throw new IllegalArgumentException();
+        if (clock == null) throw new NullPointerException();
         this.capacity = capacity;
+        this.limit = capacity;
+        this.stats = stats;
+        this.clock = clock;
+        this.maxAgeNanos = maxAgeNanos;
+        this.timestamped = stats != null || maxAgeNanos != Long.MAX_VALUE;
+        this.index = dedupe ? new OpenHashIndex<E, Node<E>>(false) : null;
         tail = head = new Node<>(null);
     }
 
+    private static long positive(long maxAge, TimeUnit unit) {
+        if (maxAge <= 0) throw new IllegalArgumentException();
+        return unit.toNanos(maxAge);
+    }
+
+    public QueueAgeStats ageStats() {
+        return stats;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity. Growing only raises the bound; shrinking drops the oldest
+     * elements above the new capacity at once.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        appliedScale = scale;
+        limit = scaled(capacity, appliedScale);
+        expire();
+        long now = (stats != null) ? clock.nanoTime() : 0L;
+        while (count > limit) {
+            dequeue();
+            count -= 1;
+            if (stats != null) {
+                stats.evictedAge().record(now - timeOf(head));
+            }
+        }
+    }
+
+    public CapacityReport capacityReport(double percentile) {
+        if (stats == null) throw new IllegalStateException();
+        return stats.capacityReport(capacity, percentile);
+    }
+
     private void enqueue(Node<E> node) {
+        if (counter != null) {
+            counter.increment(node.element);
+        }
+        node.prev = tail;
         tail = tail.next = node;
     }
 
+    private static long timeOf(Node<?> node) {
+        return ((TimedNode<?>) node).time;
+    }
+
+    // drops elements older than maxAge from the head of the queue
+    private void expire(long now) {
+        while (count > 0 && now - timeOf(head.next) > maxAgeNanos) {
+            dequeue();
+            count -= 1;
+            if (stats != null) {
+                stats.evictedAge().record(now - timeOf(head));
+            }
+        }
+    }
+
+    private void expire() {
+        if (maxAgeNanos != Long.MAX_VALUE) {
+            expire(clock.nanoTime());
+        }
+    }
+
     private E dequeue() {
         Node<E> first = head.next; //hold first node, to make it as head of queue
 
         head.next = head; // remove head node from queue
         head = first; // make first node as head of queue
+        first.prev = null;
         E removedElement = first.element; //hold first element for return it
         head.element = null; // remove first element from head
+        if (index != null) {
+            index.remove(removedElement);
+        } else if (counter != null) {
+            counter.decrement(removedElement);
+        }
 
         return removedElement;
     }
 
     void unlink(Node<E> nextNode, Node<E> currentNode) {
+        if (index != null) {
+            index.remove(nextNode.element);
+        } else if (counter != null) {
+            counter.decrement(nextNode.element);
+        }
         nextNode.element = null;
-        currentNode.next = nextNode.next;
+        Node<E> after = nextNode.next;
+        currentNode.next = after;
+        if (after != null) {
+            after.prev = currentNode;
+        }
         if (tail == nextNode) {
             tail = currentNode;
         }
@@ -58,6 +215,7 @@ public class MostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Qu
         private E currentElement;
 
         private IteratorImpl() {
+            expire();
             current = head.next;
             if (current != null) {
                 currentElement = current.element;
@@ -99,13 +257,9 @@ public class MostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Qu
 
             Node<E> node = lastRet;
             lastRet = null;
-            for (Node<E> currentNode = head, nextNode = currentNode.next;
-                 nextNode != null;
-                 currentNode = nextNode, nextNode = nextNode.next) {
-                if (nextNode == node) {
-                    unlink(nextNode, currentNode);
-                    break;
-                }
+            // a node is still linked as long as it holds its element
+            if (node.element != null) {
+                unlink(node, node.prev);
             }
         }
     }
@@ -117,6 +271,7 @@ public class MostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Qu
 
     @Override
     public int size() {
+        expire();
         return count;
     }
 
@@ -126,30 +281,136 @@ public class MostRecentlyInsertedQueue<E> extends AbstractQueue<E> implements Qu
             throw new NullPointerException();
         }
 
-        Node<E> node = new Node<>(element);
+        Node<E> node;
+        long now = 0;
+        if (timestamped) {
+            now = clock.nanoTime();
+            expire(now);
+            node = new TimedNode<>(element, now);
+        } else {
+            node = new Node<>(element);
+        }
+        if (index != null) {
+            // moves a queued element to the tail, the old node is unlinked like a removed one
+            Node<E> queued = index.get(element);
+            if (queued != null) {
+                unlink(queued, queued.prev);
+            }
+            index.put(element, node);
+        }
         enqueue(node);
-        if (count < capacity) {
+        double scale = this.scale;
+        if (scale != appliedScale) {
+            appliedScale = scale;
+            limit = scaled(capacity, scale);
+        }
+        int limit = this.limit;
+        if (count < limit) {
             count += 1;
         } else {
-            dequeue();
+            // drops one element, or more if the limit was lowered since the last offer
+            for (int excess = count - limit; excess >= 0; excess--) {
+                dequeue();
+                if (stats != null) {
+                    stats.evictedAge().record(now - timeOf(head));
+                }
+            }
+            count = limit;
         }
 
         return true;
     }
 
+    /**
+     * Lowers the effective capacity to the fraction of the capacity, or restores it for a
+     * fraction of 1. The queue is not thread-safe, so the caller's thread only publishes the
+     * fraction; the next offer applies it to the capacity and drops the oldest elements above
+     * the new limit, so a concurrent {@code setCapacity} is never overwritten.
+     */
+    void scaleCapacity(double fraction) {
+        scale = fraction;
+    }
+
+    static int scaled(int capacity, double fraction) {
+        return (fraction >= 1) ? capacity : Math.max(1, (int) (capacity * fraction));
+    }
+
     @Override
     public E poll() {
+        expire();
         if (count == 0) {
             return null;
         }
         E removedElement = dequeue();
+        if (stats != null) {
+            stats.consumedAge().record(clock.nanoTime() - timeOf(head));
+            stats.consumedDepth().record(count);
+        }
         count -= 1;
 
         return removedElement;
     }
 
+    /**
+     * Inserts the element unless an equal element is queued. In dedupe mode the check uses the
+     * dedupe index; otherwise the first call builds a counting index of the queued elements,
+     * which every later insertion and removal keeps exact, so the check is O(1) even if
+     * elements are queued several times.
+     *
+     * @return false if an equal element is already queued
+     */
+    public boolean offerIfAbsent(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        if (index == null && counter == null) {
+            buildCounter();
+        }
+        if (contains(element)) {
+            return false;
+        }
+        return offer(element);
+    }
+
+    private void buildCounter() {
+        OpenHashCounter built = new OpenHashCounter();
+        for (Node<E> node = head.next; node != null; node = node.next) {
+            built.increment(node.element);
+        }
+        counter = built;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        if (index == null && counter == null) {
+            return super.contains(object);
+        }
+        if (object == null) {
+            return false;
+        }
+        expire();
+        return (index != null) ? index.get(object) != null : counter.count(object) > 0;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        if (index == null) {
+            return super.remove(object);
+        }
+        if (object == null) {
+            return false;
+        }
+        Node<E> node = index.get(object);
+        if (node == null) {
+            return false;
+        }
+        unlink(node, node.prev);
+        return true;
+    }
+
     @Override
     public E peek() {
+        expire();
         if (count == 0) {
             return null;
         }
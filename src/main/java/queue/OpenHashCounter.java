@@ -0,0 +1,73 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing multiset counting how many times each element is queued, used by
+ * {@code offerIfAbsent} to detect duplicates in O(1) even if an element is queued several
+ * times. Shares the probing of {@link OpenHashTable} with {@link OpenHashIndex}, with the
+ * counts in a primitive array so counting allocates nothing. Not thread-safe, callers hold
+ * the queue's lock.
+ */
+final class OpenHashCounter extends OpenHashTable {
+    // keys[i] is counted counts[i] times
+    private int[] counts;
+
+    OpenHashCounter() {
+        super(false);
+        this.counts = new int[MIN_TABLE];
+    }
+
+    int count(Object key) {
+        return counts[slot(key)];
+    }
+
+    void increment(Object key) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            counts[i] = 1;
+            addKey(i, key);
+        } else {
+            counts[i]++;
+        }
+    }
+
+    void decrement(Object key) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            return;
+        }
+        if (--counts[i] > 0) {
+            return;
+        }
+        removeAt(i);
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        Arrays.fill(counts, 0);
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        counts[to] = counts[from];
+    }
+
+    @Override
+    void clearValue(int i) {
+        counts[i] = 0;
+    }
+
+    @Override
+    Object replaceValues(int length) {
+        int[] oldCounts = counts;
+        counts = new int[length];
+        return oldCounts;
+    }
+
+    @Override
+    void copyValue(Object oldValues, int from, int to) {
+        counts[to] = ((int[]) oldValues)[from];
+    }
+}
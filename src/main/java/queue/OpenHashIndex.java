@@ -0,0 +1,77 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from queue elements to the queue's nodes, used by the queues that
+ * offer O(1) {@code contains} and {@code remove(Object)}. Linear probing with backward-shift
+ * deletion keeps lookups short without tombstones, and a hit reads two adjacent array slots
+ * instead of chasing a {@code HashMap} entry. Keys are compared with {@code equals}, or with
+ * {@code ==} for an identity index. Not thread-safe, callers hold the queue's lock.
+ */
+final class OpenHashIndex<K, V> extends OpenHashTable {
+    // values[i] is the value of keys[i]
+    private Object[] values;
+
+    OpenHashIndex(boolean identity) {
+        super(identity);
+        this.values = new Object[MIN_TABLE];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        return (V) values[slot(key)];
+    }
+
+    /** Maps the key to the value and returns the previous value, or null. */
+    @SuppressWarnings("unchecked")
+    V put(K key, V value) {
+        int i = slot(key);
+        V previous = (V) values[i];
+        values[i] = value;
+        if (keys[i] == null) {
+            addKey(i, key);
+        }
+        return previous;
+    }
+
+    /** Removes the mapping of the key and returns its value, or null. */
+    @SuppressWarnings("unchecked")
+    V remove(Object key) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            return null;
+        }
+        V previous = (V) values[i];
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        Arrays.fill(values, null);
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void clearValue(int i) {
+        values[i] = null;
+    }
+
+    @Override
+    Object replaceValues(int length) {
+        Object[] oldValues = values;
+        values = new Object[length];
+        return oldValues;
+    }
+
+    @Override
+    void copyValue(Object oldValues, int from, int to) {
+        values[to] = ((Object[]) oldValues)[from];
+    }
+}
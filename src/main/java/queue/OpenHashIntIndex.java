@@ -0,0 +1,73 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from keys to non-negative ints, used to map keys to slots of a
+ * slab without boxing. Shares the probing of {@link OpenHashTable} with
+ * {@link OpenHashIndex}, with the values in a primitive array. Not thread-safe, callers hold
+ * the owner's lock.
+ */
+final class OpenHashIntIndex extends OpenHashTable {
+    // keys[i] maps to values[i]
+    private int[] values;
+
+    OpenHashIntIndex() {
+        super(false);
+        this.values = new int[MIN_TABLE];
+    }
+
+    /** Returns the value of the key, or -1. */
+    int get(Object key) {
+        int i = slot(key);
+        return (keys[i] == null) ? -1 : values[i];
+    }
+
+    /** Maps the key to the value, which must not be negative. */
+    void put(Object key, int value) {
+        int i = slot(key);
+        values[i] = value;
+        if (keys[i] == null) {
+            addKey(i, key);
+        }
+    }
+
+    /** Removes the mapping of the key and returns its value, or -1. */
+    int remove(Object key) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            return -1;
+        }
+        int previous = values[i];
+        removeAt(i);
+        return previous;
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        Arrays.fill(values, 0);
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void clearValue(int i) {
+        values[i] = 0;
+    }
+
+    @Override
+    Object replaceValues(int length) {
+        int[] oldValues = values;
+        values = new int[length];
+        return oldValues;
+    }
+
+    @Override
+    void copyValue(Object oldValues, int from, int to) {
+        values[to] = ((int[]) oldValues)[from];
+    }
+}
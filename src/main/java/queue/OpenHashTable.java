@@ -0,0 +1,104 @@
+package queue;
+
+import java.util.Arrays;
+
+/**
+ * Key table shared by the open-addressing maps of this package: linear probing over a
+ * power-of-two table kept at most half full, with backward-shift deletion so lookups stay
+ * short without tombstones. Subclasses keep the values in a parallel array of their own type,
+ * primitive where they can, and move them along with the keys through the value hooks. Not
+ * thread-safe, callers hold the owner's lock.
+ */
+abstract class OpenHashTable {
+    static final int MIN_TABLE = 16;
+
+    private final boolean identity;
+    // a null key is a free slot
+    Object[] keys;
+    int mask;
+    private int size;
+
+    OpenHashTable(boolean identity) {
+        this.identity = identity;
+        this.keys = new Object[MIN_TABLE];
+        this.mask = MIN_TABLE - 1;
+    }
+
+    /** Number of keys. */
+    final int size() {
+        return size;
+    }
+
+    final boolean isIdentity() {
+        return identity;
+    }
+
+    private int hash(Object key) {
+        int h = (identity ? System.identityHashCode(key) : key.hashCode()) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // slot holding the key, or the free slot where it would go
+    final int slot(Object key) {
+        int i = hash(key) & mask;
+        Object candidate;
+        while ((candidate = keys[i]) != null && candidate != key && (identity || !key.equals(candidate))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Stores the key in the free slot found by {@link #slot}, after its value was set there. */
+    final void addKey(int i, Object key) {
+        keys[i] = key;
+        if (++size > (mask + 1) >>> 1) {
+            resize();
+        }
+    }
+
+    /** Frees the slot of a key and shifts later entries of the probe run back into the hole. */
+    final void removeAt(int i) {
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                moveValue(j, i);
+                i = j;
+            }
+        }
+        keys[i] = null;
+        clearValue(i);
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object oldValues = replaceValues(oldKeys.length << 1);
+        keys = new Object[oldKeys.length << 1];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                copyValue(oldValues, j, i);
+            }
+        }
+    }
+
+    /** Copies the value of slot {@code from} to slot {@code to}. */
+    abstract void moveValue(int from, int to);
+
+    /** Resets the value of a freed slot. */
+    abstract void clearValue(int i);
+
+    /** Replaces the value array with an empty one of the given length and returns the old one. */
+    abstract Object replaceValues(int length);
+
+    /** Copies a value of the array returned by {@link #replaceValues} into the new array. */
+    abstract void copyValue(Object oldValues, int from, int to);
+}
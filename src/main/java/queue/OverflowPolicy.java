@@ -0,0 +1,19 @@
+package queue;
+
+/**
+ * What a bounded {@link MostRecentlyInsertedBlockingQueue} does with an insertion that does
+ * not fit.
+ */
+public enum OverflowPolicy {
+    /** Evicts the oldest elements to make room, inserting never blocks. */
+    DROP_OLDEST,
+    /** Drops the new element: {@code offer} returns false and {@code put} discards it. */
+    DROP_NEWEST,
+    /** Waits for room like {@code ArrayBlockingQueue}, {@code offer} without timeout returns false. */
+    BLOCK,
+    /**
+     * Waits for room for at most the queue's maximum block time (or the offer's timeout, if
+     * shorter), then evicts the oldest elements. {@code offer} without timeout evicts at once.
+     */
+    BLOCK_THEN_DROP_OLDEST
+}
@@ -0,0 +1,399 @@
+package queue;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded blocking queue that, when full, evicts the oldest element of the lowest-priority
+ * non-empty lane instead of the oldest element overall. Removal still returns elements in
+ * global insertion order.
+ * <p>
+ * Every element belongs to one of a small fixed number of priority lanes, lane 0 being the
+ * lowest. Nodes are linked twice: into one doubly-linked list in insertion order and into a
+ * FIFO chain per lane. The globally oldest element is always the oldest of its lane, so poll
+ * and eviction both unlink a lane head and are O(1); a bitmask of the non-empty lanes finds
+ * the lane to evict from without scanning.
+ * <p>
+ * Eviction unlinks from the middle of the queue, so unlike {@link MostRecentlyInsertedBlockingQueue}
+ * producers and consumers share a single lock.
+ */
+public class PriorityLaneBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    /** Maximum number of lanes, bounded by the width of the non-empty lane mask. */
+    public static final int MAX_LANES = Integer.SIZE;
+
+    private static class Node<E> {
+        E element;
+        final int lane;
+        Node<E> prev;
+        Node<E> next;
+        Node<E> laneNext;
+
+        Node(E element, int lane) {
+            this.element = element;
+            this.lane = lane;
+        }
+    }
+
+    private final int capacity;
+    private final ToIntFunction<? super E> priority;
+
+    // insertion order, removed nodes keep their next pointer so iterators can move on
+    private Node<E> head;
+    private Node<E> tail;
+    private final Node<E>[] laneHeads;
+    private final Node<E>[] laneTails;
+    private final int[] laneCounts;
+    private int nonEmptyLanes;
+    private int count;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // written holding lock
+    private volatile long evictionCount;
+
+    /**
+     * Creates a queue of the given capacity with {@code lanes} priority lanes. The priority
+     * function maps an element to its lane, from 0 (evicted first) to {@code lanes - 1}.
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityLaneBlockingQueue(int capacity, int lanes, ToIntFunction<? super E> priority) {
+        if (capacity <= 0 || lanes <= 0 || lanes > MAX_LANES) throw new IllegalArgumentException();
+        if (priority == null) throw new NullPointerException();
+        this.capacity = capacity;
+        this.priority = priority;
+        this.laneHeads = (Node<E>[]) new Node<?>[lanes];
+        this.laneTails = (Node<E>[]) new Node<?>[lanes];
+        this.laneCounts = new int[lanes];
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public int lanes() {
+        return laneHeads.length;
+    }
+
+    /** Number of queued elements in the given lane. */
+    public int size(int lane) {
+        lock.lock();
+        try {
+            return laneCounts[lane];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Node<E> newNode(E element) {
+        if (element == null) throw new NullPointerException();
+        int lane = priority.applyAsInt(element);
+        if (lane < 0 || lane >= laneHeads.length) {
+            throw new IllegalArgumentException("lane " + lane + " out of range 0.." + (laneHeads.length - 1));
+        }
+        return new Node<>(element, lane);
+    }
+
+    // must be called holding lock
+    private void enqueue(Node<E> node) {
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+
+        int lane = node.lane;
+        if (laneTails[lane] == null) {
+            laneHeads[lane] = node;
+            nonEmptyLanes |= 1 << lane;
+        } else {
+            laneTails[lane].laneNext = node;
+        }
+        laneTails[lane] = node;
+        laneCounts[lane]++;
+        count++;
+    }
+
+    // must be called holding lock, removes the head of the node's lane
+    private E unlinkLaneHead(Node<E> node) {
+        int lane = node.lane;
+        laneHeads[lane] = node.laneNext;
+        node.laneNext = null;
+        if (laneHeads[lane] == null) {
+            laneTails[lane] = null;
+            nonEmptyLanes &= ~(1 << lane);
+        }
+        laneCounts[lane]--;
+        return unlinkGlobal(node);
+    }
+
+    // must be called holding lock, the node's lane links must already be updated
+    private E unlinkGlobal(Node<E> node) {
+        Node<E> prev = node.prev;
+        Node<E> next = node.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        node.prev = null;
+        E element = node.element;
+        node.element = null;
+        count--;
+        return element;
+    }
+
+    // must be called holding lock
+    private E dequeue() {
+        E element = unlinkLaneHead(head);
+        if (count > 0) {
+            notEmpty.signal();
+        }
+        return element;
+    }
+
+    // must be called holding lock
+    private void evictLowestLane() {
+        unlinkLaneHead(laneHeads[Integer.numberOfTrailingZeros(nonEmptyLanes)]);
+        evictionCount++;
+    }
+
+    // must be called holding lock, removes a node from the middle of its lane
+    private void unlink(Node<E> node) {
+        int lane = node.lane;
+        if (laneHeads[lane] == node) {
+            unlinkLaneHead(node);
+            return;
+        }
+        Node<E> before = laneHeads[lane];
+        while (before.laneNext != node) {
+            before = before.laneNext;
+        }
+        before.laneNext = node.laneNext;
+        if (laneTails[lane] == node) {
+            laneTails[lane] = before;
+        }
+        node.laneNext = null;
+        laneCounts[lane]--;
+        unlinkGlobal(node);
+    }
+
+    /** Inserts the element, evicting the oldest element of the lowest non-empty lane if full. */
+    @Override
+    public boolean offer(E element) {
+        Node<E> node = newNode(element);
+        lock.lock();
+        try {
+            if (count == capacity) {
+                evictLowestLane();
+            }
+            enqueue(node);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /** Never blocks, the queue makes room by eviction. */
+    @Override
+    public void put(E element) {
+        offer(element);
+    }
+
+    /** Never blocks, the queue makes room by eviction. */
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) {
+        return offer(element);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return (count == 0) ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            return (count == 0) ? null : head.element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        if (object == null) return false;
+        lock.lock();
+        try {
+            for (Node<E> node = head; node != null; node = node.next) {
+                if (object.equals(node.element)) {
+                    unlink(node);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == null)
+            throw new NullPointerException();
+        if (collection == this)
+            throw new IllegalArgumentException();
+        if (maxElements <= 0)
+            return 0;
+        lock.lock();
+        try {
+            int drainCount = Math.min(maxElements, count);
+            for (int i = 0; i < drainCount; i++) {
+                collection.add(unlinkLaneHead(head));
+            }
+            return drainCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class IteratorImpl implements Iterator<E> {
+        private Node<E> current;
+        private Node<E> lastRet;
+        private E currentElement;
+
+        private IteratorImpl() {
+            lock.lock();
+            try {
+                current = head;
+                if (current != null)
+                    currentElement = current.element;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean hasNext() {
+            return current != null;
+        }
+
+        // skips nodes removed since the iterator passed them, they still point forward
+        private Node<E> nextNode(Node<E> node) {
+            Node<E> next = node.next;
+            while (next != null && next.element == null) {
+                next = next.next;
+            }
+            return next;
+        }
+
+        public E next() {
+            lock.lock();
+            try {
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                E element = currentElement;
+                lastRet = current;
+                current = nextNode(current);
+                currentElement = (current == null) ? null : current.element;
+                return element;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void remove() {
+            if (lastRet == null)
+                throw new IllegalStateException();
+            lock.lock();
+            try {
+                if (lastRet.element != null) {
+                    unlink(lastRet);
+                }
+                lastRet = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new IteratorImpl();
+    }
+}
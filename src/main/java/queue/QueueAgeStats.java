@@ -0,0 +1,38 @@
+package queue;
+
+/**
+ * Element age histograms (in nanoseconds) recorded by a {@link MostRecentlyInsertedQueue}
+ * created with this stats instance, used to size the queue capacity.
+ */
+public class QueueAgeStats {
+    private final LongHistogram evictedAge = new LongHistogram();
+    private final LongHistogram consumedAge = new LongHistogram();
+    private final LongHistogram consumedDepth = new LongHistogram();
+
+    /** How long evicted elements lived before the queue dropped them. */
+    public LongHistogram evictedAge() {
+        return evictedAge;
+    }
+
+    /** How long consumed elements waited before {@code poll()} removed them. */
+    public LongHistogram consumedAge() {
+        return consumedAge;
+    }
+
+    /**
+     * Queue size at the moment an element was polled, that is the smallest capacity
+     * that would have kept the element from being evicted.
+     */
+    public LongHistogram consumedDepth() {
+        return consumedDepth;
+    }
+
+    /**
+     * Returns the capacity that would have kept the given percentage of elements
+     * (consumed or evicted) from being evicted.
+     */
+    public CapacityReport capacityReport(int capacity, double percentile) {
+        return new CapacityReport(capacity, percentile,
+                evictedAge.snapshot(), consumedAge.snapshot(), consumedDepth.snapshot());
+    }
+}
@@ -0,0 +1,13 @@
+package queue;
+
+/**
+ * Time source used by the queues to timestamp elements, in nanoseconds with the same
+ * semantics as {@link System#nanoTime()}. {@link #SYSTEM} reads {@code System.nanoTime()}
+ * directly, {@link CachedQueueClock} trades resolution for a single volatile read and
+ * {@link ManualQueueClock} is moved by tests.
+ */
+public interface QueueClock {
+    QueueClock SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
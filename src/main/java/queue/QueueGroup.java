@@ -0,0 +1,188 @@
+package queue;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares one budget between a group of {@link MostRecentlyInsertedBlockingQueue}s, so that the
+ * sum over all member queues stays under the budget while each queue only holds what it
+ * currently needs. The unit of the budget is fixed when the group is created: a group made
+ * with {@link #ofElements} counts elements, one made with {@link #ofWeight} sums the weights
+ * its members compute with their {@link Weigher} (for example bytes), and each only accepts
+ * members of its own kind.
+ * <p>
+ * Each member has a ceiling, its own capacity, and a floor that cross-queue eviction never
+ * takes it below; the floors must fit in the budget together. An offer that takes the group
+ * over budget evicts the oldest element of the group, after the offering queue released its
+ * locks. The oldest element is found approximately: only the heads of up to {@value #SAMPLES}
+ * members, starting at a random one, are compared, each under its own member's take lock.
+ * Besides that the offer path only updates a shared atomic counter, there is no group-wide
+ * lock; concurrent offers may overshoot the budget until their evictions complete.
+ * <p>
+ * A member leaves the group with {@link #unregister}, which releases its floor and its share
+ * of the usage; the queue stays usable on its own, bounded by its ceiling only.
+ */
+public class QueueGroup {
+    // members compared to find the oldest element when the group is over budget
+    static final int SAMPLES = 8;
+
+    private final long budget;
+    private final boolean weighted;
+    private final AtomicLong usage = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    // copied on registration, read without locking
+    private volatile MostRecentlyInsertedBlockingQueue<?>[] members = new MostRecentlyInsertedBlockingQueue<?>[0];
+    // guarded by this
+    private long floors;
+
+    private QueueGroup(long budget, boolean weighted) {
+        if (budget <= 0) throw new IllegalArgumentException();
+        this.budget = budget;
+        this.weighted = weighted;
+    }
+
+    /** Creates a group whose budget counts the elements of its members. */
+    public static QueueGroup ofElements(long budget) {
+        return new QueueGroup(budget, false);
+    }
+
+    /** Creates a group whose budget sums the weights of the elements of its members. */
+    public static QueueGroup ofWeight(long budget) {
+        return new QueueGroup(budget, true);
+    }
+
+    /**
+     * Creates a member queue holding at most {@code ceiling} elements, of which the group
+     * never evicts the last {@code floor}.
+     *
+     * @throws UnsupportedOperationException if the group budgets weight
+     */
+    public <E> MostRecentlyInsertedBlockingQueue<E> newQueue(int floor, int ceiling) {
+        if (weighted) {
+            throw new UnsupportedOperationException("a weight group only accepts weighted members");
+        }
+        if (floor > ceiling) {
+            throw new IllegalArgumentException("floor " + floor + " exceeds the ceiling " + ceiling);
+        }
+        return register(floor, MostRecentlyInsertedBlockingQueue.<E>builder(ceiling).group(this, floor).build());
+    }
+
+    /**
+     * Creates a member queue charged to the group by weight, bounded by {@code capacity}
+     * elements and {@code maxWeight}. The group never evicts it below {@code floor} weight.
+     *
+     * @throws UnsupportedOperationException if the group budgets elements
+     */
+    public <E> MostRecentlyInsertedBlockingQueue<E> newQueue(long floor, int capacity, long maxWeight,
+                                                          Weigher<? super E> weigher) {
+        if (!weighted) {
+            throw new UnsupportedOperationException("an element group only accepts unweighted members");
+        }
+        if (maxWeight <= 0) throw new IllegalArgumentException();
+        if (weigher == null) throw new NullPointerException();
+        if (floor > maxWeight) {
+            throw new IllegalArgumentException("floor " + floor + " exceeds the maximum weight " + maxWeight);
+        }
+        return register(floor, MostRecentlyInsertedBlockingQueue.<E>builder(capacity)
+                .maxWeight(maxWeight, weigher).group(this, floor).build());
+    }
+
+    private synchronized <E> MostRecentlyInsertedBlockingQueue<E> register(long floor,
+                                                                         MostRecentlyInsertedBlockingQueue<E> queue) {
+        if (floor < 0 || floors + floor > budget) {
+            throw new IllegalArgumentException("floor " + floor + " does not fit in the budget");
+        }
+        floors += floor;
+        MostRecentlyInsertedBlockingQueue<?>[] grown = Arrays.copyOf(members, members.length + 1);
+        grown[members.length] = queue;
+        members = grown;
+        return queue;
+    }
+
+    /**
+     * Removes a member from the group: its floor is released, its elements no longer count
+     * against the budget and the group no longer evicts from it. Returns false if the queue
+     * is not a member.
+     */
+    public synchronized boolean unregister(MostRecentlyInsertedBlockingQueue<?> queue) {
+        MostRecentlyInsertedBlockingQueue<?>[] members = this.members;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == queue) {
+                MostRecentlyInsertedBlockingQueue<?>[] shrunk = new MostRecentlyInsertedBlockingQueue<?>[members.length - 1];
+                System.arraycopy(members, 0, shrunk, 0, i);
+                System.arraycopy(members, i + 1, shrunk, i, shrunk.length - i);
+                this.members = shrunk;
+                floors -= queue.groupFloor();
+                queue.leaveGroup();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    /** Whether the budget sums weights rather than counting elements. */
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    /** Number of member queues. */
+    public int size() {
+        return members.length;
+    }
+
+    /** Elements or weight held by all member queues. */
+    public long usage() {
+        return usage.get();
+    }
+
+    /** Elements evicted from members to keep the group within its budget. */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    // called by members when an element is linked or removed
+    void charge(long units) {
+        usage.addAndGet(units);
+    }
+
+    // called by members after an insertion, holding none of their locks
+    void enforce() {
+        int misses = 0;
+        while (usage.get() > budget && misses < 2) {
+            MostRecentlyInsertedBlockingQueue<?> victim = oldestMember();
+            if (victim != null && victim.evictForGroup()) {
+                evictionCount.incrementAndGet();
+                misses = 0;
+            } else {
+                // every sampled member was at its floor, a later offer samples others
+                misses++;
+            }
+        }
+    }
+
+    private MostRecentlyInsertedBlockingQueue<?> oldestMember() {
+        MostRecentlyInsertedBlockingQueue<?>[] members = this.members;
+        int n = members.length;
+        if (n == 0) {
+            return null;
+        }
+        int samples = Math.min(n, SAMPLES);
+        int start = (n <= SAMPLES) ? 0 : ThreadLocalRandom.current().nextInt(n);
+        MostRecentlyInsertedBlockingQueue<?> oldest = null;
+        long oldestTime = 0;
+        for (int i = 0; i < samples; i++) {
+            MostRecentlyInsertedBlockingQueue<?> member = members[(start + i) % n];
+            long time = member.evictableHeadTime();
+            if (time != Long.MIN_VALUE && (oldest == null || time - oldestTime < 0)) {
+                oldest = member;
+                oldestTime = time;
+            }
+        }
+        return oldest;
+    }
+}
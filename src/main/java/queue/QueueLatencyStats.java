@@ -0,0 +1,40 @@
+package queue;
+
+/**
+ * Latency histograms (in nanoseconds) recorded by a {@link MostRecentlyInsertedBlockingQueue}
+ * created with this stats instance. One instance may be shared by several queues.
+ */
+public class QueueLatencyStats {
+    private final LongHistogram takeWait = new LongHistogram();
+    private final LongHistogram putLockWait = new LongHistogram();
+    private final LongHistogram evictionLockHold = new LongHistogram();
+    private final LongHistogram residency = new LongHistogram();
+
+    /** Time consumers spent inside {@code take()} and {@code poll(timeout)}. */
+    public LongHistogram takeWait() {
+        return takeWait;
+    }
+
+    /** Time producers waited to acquire the put lock. */
+    public LongHistogram putLockWait() {
+        return putLockWait;
+    }
+
+    /** Time the take lock was held while evicting the oldest element. */
+    public LongHistogram evictionLockHold() {
+        return evictionLockHold;
+    }
+
+    /** Time from insertion of an element until a consumer removed it. */
+    public LongHistogram residency() {
+        return residency;
+    }
+
+    @Override
+    public String toString() {
+        return "takeWait[" + takeWait.snapshot() + "]"
+                + " putLockWait[" + putLockWait.snapshot() + "]"
+                + " evictionLockHold[" + evictionLockHold.snapshot() + "]"
+                + " residency[" + residency.snapshot() + "]";
+    }
+}
@@ -0,0 +1,288 @@
+package queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary trace of queue operations, written by {@link TraceRecordingQueue}.
+ * <p>
+ * A trace starts with a magic number and a version, followed by one record per operation:
+ * the operation code, the recording thread id, the nanoseconds elapsed since the previous
+ * record of the same thread, the element key (for operations that take an element) and the
+ * result. All numbers are stored as variable-length zig-zag integers, so a typical record
+ * takes 5-10 bytes. Every recording thread encodes its records into a buffer of its own and
+ * appends it to the stream in chunks, so the records of different threads interleave by
+ * chunk; {@link #read} restores their order by time.
+ */
+public class QueueTrace {
+    static final int MAGIC = 0x4d525154; // "MRQT"
+    static final int VERSION = 2;
+
+    public enum Op {
+        OFFER, POLL, PEEK, PUT, TAKE, OFFER_TIMED, POLL_TIMED, DRAIN;
+
+        private static final Op[] VALUES = values();
+
+        boolean hasElement() {
+            return this == OFFER || this == PUT || this == OFFER_TIMED;
+        }
+
+        boolean hasTimeout() {
+            return this == OFFER_TIMED || this == POLL_TIMED;
+        }
+    }
+
+    public static class Event {
+        private final Op op;
+        private final long threadId;
+        private final long timeNanos;
+        private final long element;
+        private final long timeoutNanos;
+        private final boolean hasResult;
+        private final long result;
+
+        Event(Op op, long threadId, long timeNanos, long element, long timeoutNanos, boolean hasResult, long result) {
+            this.op = op;
+            this.threadId = threadId;
+            this.timeNanos = timeNanos;
+            this.element = element;
+            this.timeoutNanos = timeoutNanos;
+            this.hasResult = hasResult;
+            this.result = result;
+        }
+
+        public Op op() {
+            return op;
+        }
+
+        public long threadId() {
+            return threadId;
+        }
+
+        /** Nanoseconds since the first record of the trace. */
+        public long timeNanos() {
+            return timeNanos;
+        }
+
+        /** Key of the offered element, for OFFER, PUT and OFFER_TIMED. */
+        public long element() {
+            return element;
+        }
+
+        public long timeoutNanos() {
+            return timeoutNanos;
+        }
+
+        /**
+         * Whether the operation returned a result: true for a successful offer, a
+         * non-null poll, peek or take. For DRAIN the result is the drained count.
+         */
+        public boolean hasResult() {
+            return hasResult;
+        }
+
+        /** Key of the returned element, or the drained count for DRAIN. */
+        public long result() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return op + " thread=" + threadId + " time=" + timeNanos
+                    + (op.hasElement() ? " element=" + element : "")
+                    + (hasResult ? " result=" + result : " result=none");
+        }
+    }
+
+    public static class Writer implements Closeable {
+        // bytes a thread buffers before it appends them to the stream
+        static final int CHUNK_BYTES = 8192;
+
+        private final long startNanos = System.nanoTime();
+        // guarded by this
+        private final DataOutputStream out;
+        private final List<Buffer> buffers = new ArrayList<>();
+
+        private final ThreadLocal<Buffer> localBuffer = new ThreadLocal<Buffer>() {
+            @Override
+            protected Buffer initialValue() {
+                Buffer buffer = new Buffer(startNanos);
+                synchronized (Writer.this) {
+                    buffers.add(buffer);
+                }
+                return buffer;
+            }
+        };
+
+        // records of one thread, guarded by its own monitor, which only flush and close contend for
+        private static final class Buffer {
+            final Thread thread = Thread.currentThread();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_BYTES + 64);
+            final DataOutputStream data = new DataOutputStream(bytes);
+            long lastNanos;
+
+            Buffer(long startNanos) {
+                this.lastNanos = startNanos;
+            }
+        }
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        void write(Op op, long element, long timeoutNanos, boolean hasResult, long result) {
+            Buffer buffer = localBuffer.get();
+            synchronized (buffer) {
+                long now = System.nanoTime();
+                DataOutputStream data = buffer.data;
+                try {
+                    data.writeByte(op.ordinal() | (hasResult ? 0x80 : 0));
+                    writeVarLong(data, buffer.thread.getId());
+                    writeVarLong(data, now - buffer.lastNanos);
+                    if (op.hasElement()) {
+                        writeVarLong(data, element);
+                    }
+                    if (op.hasTimeout()) {
+                        writeVarLong(data, timeoutNanos);
+                    }
+                    if (hasResult && !op.hasElement()) {
+                        writeVarLong(data, result);
+                    }
+                    if (buffer.bytes.size() >= CHUNK_BYTES) {
+                        append(buffer);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buffer.lastNanos = now;
+            }
+        }
+
+        // must be called holding the buffer
+        private void append(Buffer buffer) throws IOException {
+            synchronized (this) {
+                buffer.bytes.writeTo(out);
+            }
+            buffer.bytes.reset();
+        }
+
+        /** Appends the records buffered by every thread and flushes the stream. */
+        public void flush() throws IOException {
+            Buffer[] snapshot;
+            synchronized (this) {
+                snapshot = buffers.toArray(new Buffer[0]);
+            }
+            List<Buffer> terminated = new ArrayList<>();
+            // buffers are locked before the writer, like in write
+            for (Buffer buffer : snapshot) {
+                // a thread that terminated before its buffer is appended records nothing more
+                if (!buffer.thread.isAlive()) {
+                    terminated.add(buffer);
+                }
+                synchronized (buffer) {
+                    append(buffer);
+                }
+            }
+            synchronized (this) {
+                buffers.removeAll(terminated);
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            synchronized (this) {
+                out.close();
+            }
+        }
+    }
+
+    public static List<Event> read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a queue trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported trace version " + version);
+        }
+        List<Event> events = new ArrayList<>();
+        Map<Long, Long> lastTimes = new HashMap<>();
+        while (true) {
+            int header = in.read();
+            if (header < 0) {
+                return inTimeOrder(events);
+            }
+            int ordinal = header & 0x7f;
+            if (ordinal >= Op.VALUES.length) {
+                throw new IOException("corrupt trace, unknown operation " + ordinal);
+            }
+            Op op = Op.VALUES[ordinal];
+            boolean hasResult = (header & 0x80) != 0;
+            long threadId = readVarLong(in);
+            Long last = lastTimes.get(threadId);
+            long time = ((last == null) ? 0 : last) + readVarLong(in);
+            lastTimes.put(threadId, time);
+            long element = op.hasElement() ? readVarLong(in) : 0;
+            long timeout = op.hasTimeout() ? readVarLong(in) : 0;
+            long result = (hasResult && !op.hasElement()) ? readVarLong(in) : 0;
+            events.add(new Event(op, threadId, time, element, timeout, hasResult, result));
+        }
+    }
+
+    // sorts the events by time, stable for the events of one thread, and makes the first one time 0
+    private static List<Event> inTimeOrder(List<Event> events) {
+        events.sort(Comparator.comparingLong(Event::timeNanos));
+        if (events.isEmpty() || events.get(0).timeNanos() == 0) {
+            return events;
+        }
+        long first = events.get(0).timeNanos();
+        List<Event> shifted = new ArrayList<>(events.size());
+        for (Event event : events) {
+            shifted.add(new Event(event.op, event.threadId, event.timeNanos - first, event.element,
+                    event.timeoutNanos, event.hasResult, event.result));
+        }
+        return shifted;
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7fL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7f) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long zigZag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated trace record");
+            }
+            zigZag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+        }
+        throw new IOException("corrupt trace, varint too long");
+    }
+}
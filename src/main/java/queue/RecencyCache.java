@@ -0,0 +1,254 @@
+package queue;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded key/value cache that evicts in insertion order exactly like a
+ * {@link MostRecentlyInsertedQueue} of the same capacity, with O(1) lookup by key. It
+ * replaces pairing a {@link ConcurrentMostRecentlyInsertedQueue} with a
+ * {@code ConcurrentHashMap}, which needs extra locking to keep the two in sync and stores
+ * every entry twice.
+ * <p>
+ * The key index is split into stripes, each an {@link OpenHashIndex} guarded by its own
+ * monitor, and readers only take the stripe of their key. A writer updates its stripe and, in
+ * the same critical section, pushes the new entry onto a lock-free write buffer, so writers of
+ * different stripes never wait for each other. Entries are linked in insertion order under an
+ * order lock that only the thread draining the buffer holds: a writer drains it unless another
+ * thread already does, and that thread checks the buffer again after letting go of the lock.
+ * An evicted entry leaves the index only if no newer entry of its key replaced it. Putting a
+ * key that is already cached replaces the entry and makes it the newest.
+ * <p>
+ * Entries still in the buffer are readable but not counted yet, so under concurrent writes
+ * {@code size()} may briefly lag behind the index; single-threaded use evicts exactly like the
+ * queue.
+ */
+public class RecencyCache<K, V> {
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        // while buffered, prev is the entry this one replaces and next the older buffered entry
+        Node<K, V> prev;
+        Node<K, V> next;
+        // guarded by orderLock
+        boolean linked;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final int capacity;
+    private final OpenHashIndex<K, Node<K, V>>[] stripes;
+    private final int stripeMask;
+
+    // entries put but not linked yet, newest first
+    private final AtomicReference<Node<K, V>> writeBuffer = new AtomicReference<>();
+
+    private final ReentrantLock orderLock = new ReentrantLock();
+    // guarded by orderLock, head is the oldest entry
+    private Node<K, V> head;
+    private Node<K, V> tail;
+    private volatile int count;
+    private volatile long evictionCount;
+
+    public RecencyCache(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RecencyCache(int capacity, int stripes) {
+        if (capacity <= 0 || stripes <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        int size = Integer.highestOneBit(Math.min(stripes, 1 << 16) * 2 - 1);
+        this.stripes = (OpenHashIndex<K, Node<K, V>>[]) new OpenHashIndex<?, ?>[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new OpenHashIndex<>(false);
+        }
+        this.stripeMask = size - 1;
+    }
+
+    private OpenHashIndex<K, Node<K, V>> stripe(Object key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return stripes[(h >>> 16) & stripeMask];
+    }
+
+    public V get(Object key) {
+        OpenHashIndex<K, Node<K, V>> stripe = stripe(key);
+        Node<K, V> node;
+        synchronized (stripe) {
+            node = stripe.get(key);
+        }
+        return (node == null) ? null : node.value;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Caches the value as the newest entry, evicting the oldest entry if the cache is full.
+     *
+     * @return the value previously cached for the key, or null
+     */
+    public V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        Node<K, V> node = new Node<>(key, value);
+        OpenHashIndex<K, Node<K, V>> stripe = stripe(key);
+        Node<K, V> previous;
+        synchronized (stripe) {
+            previous = stripe.put(key, node);
+            // buffered under the stripe lock, so the entries of a key are linked in index order
+            node.prev = previous;
+            Node<K, V> newest;
+            do {
+                newest = writeBuffer.get();
+                node.next = newest;
+            } while (!writeBuffer.compareAndSet(newest, node));
+        }
+        drainWriteBuffer();
+        return (previous == null) ? null : previous.value;
+    }
+
+    public V remove(Object key) {
+        OpenHashIndex<K, Node<K, V>> stripe = stripe(key);
+        Node<K, V> node;
+        synchronized (stripe) {
+            node = stripe.remove(key);
+        }
+        if (node == null) {
+            return null;
+        }
+        orderLock.lock();
+        try {
+            // links the node if it was still buffered, or drops it if it was evicted meanwhile
+            drain();
+            if (node.linked) {
+                unlink(node);
+            }
+        } finally {
+            orderLock.unlock();
+        }
+        drainWriteBuffer();
+        return node.value;
+    }
+
+    // drains the write buffer unless another thread holds the order lock; that thread checks
+    // the buffer again after unlocking, so no write is left behind
+    private void drainWriteBuffer() {
+        while (writeBuffer.get() != null && orderLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                orderLock.unlock();
+            }
+        }
+    }
+
+    // must be called holding orderLock, links the buffered entries in insertion order
+    private void drain() {
+        Node<K, V> newest = writeBuffer.getAndSet(null);
+        Node<K, V> oldest = null;
+        while (newest != null) {
+            Node<K, V> next = newest.next;
+            newest.next = oldest;
+            oldest = newest;
+            newest = next;
+        }
+        while (oldest != null) {
+            Node<K, V> next = oldest.next;
+            Node<K, V> replaced = oldest.prev;
+            oldest.prev = oldest.next = null;
+            if (replaced != null && replaced.linked) {
+                unlink(replaced);
+            }
+            link(oldest);
+            oldest = next;
+        }
+    }
+
+    // must be called holding orderLock
+    private void link(Node<K, V> node) {
+        if (count == capacity) {
+            Node<K, V> evicted = head;
+            OpenHashIndex<K, Node<K, V>> evictedStripe = stripe(evicted.key);
+            synchronized (evictedStripe) {
+                // a newer entry of the key may already have replaced it in the index
+                if (evictedStripe.get(evicted.key) == evicted) {
+                    evictedStripe.remove(evicted.key);
+                }
+            }
+            unlink(evicted);
+            evictionCount++;
+        }
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        node.linked = true;
+        count++;
+    }
+
+    // must be called holding orderLock
+    private void unlink(Node<K, V> node) {
+        Node<K, V> prev = node.prev;
+        Node<K, V> next = node.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        node.prev = node.next = null;
+        node.linked = false;
+        count--;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public void clear() {
+        orderLock.lock();
+        try {
+            for (OpenHashIndex<K, Node<K, V>> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.clear();
+                }
+            }
+            // entries put after their stripe was cleared are still indexed and stay cached
+            drain();
+            for (Node<K, V> node = head; node != null; ) {
+                Node<K, V> next = node.next;
+                OpenHashIndex<K, Node<K, V>> stripe = stripe(node.key);
+                boolean indexed;
+                synchronized (stripe) {
+                    indexed = stripe.get(node.key) == node;
+                }
+                if (!indexed) {
+                    unlink(node);
+                }
+                node = next;
+            }
+        } finally {
+            orderLock.unlock();
+        }
+        drainWriteBuffer();
+    }
+}
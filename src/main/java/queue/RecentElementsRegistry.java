@@ -0,0 +1,275 @@
+package queue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the last {@code perKeyCapacity} elements offered for each of many keys, with the
+ * same eviction as one {@link MostRecentlyInsertedQueue} per key but a fraction of its
+ * footprint.
+ * <p>
+ * Each key owns a slot: a ring of element references inside a shared slab array, plus an int
+ * holding the ring's head and count and a long holding the last offer time, both in arrays
+ * indexed by slot. Keys map to slots through an {@link OpenHashIntIndex}, so no object is
+ * allocated per key or per element; slabs are allocated on first use and dropped when all
+ * their slots are freed. For 20 elements per key this is about 120 bytes per key with
+ * compressed references, against roughly 600 for a queue with its sentinel and nodes.
+ * <p>
+ * Keys are spread over segments, each guarded by its own monitor. Keys idle for longer than
+ * a given time are removed by {@link #evictIdle}.
+ */
+public class RecentElementsRegistry<K, E> {
+    // slots per slab, a slab holds SLAB_SLOTS * perKeyCapacity references
+    private static final int SLAB_SLOTS = 256;
+    private static final int MAX_CAPACITY = 0xFFFF;
+
+    private final int perKeyCapacity;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final QueueClock clock;
+
+    public RecentElementsRegistry(int perKeyCapacity) {
+        this(perKeyCapacity, 16, QueueClock.SYSTEM);
+    }
+
+    public RecentElementsRegistry(int perKeyCapacity, int segments, QueueClock clock) {
+        if (perKeyCapacity <= 0 || perKeyCapacity > MAX_CAPACITY || segments <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (clock == null) throw new NullPointerException();
+        this.perKeyCapacity = perKeyCapacity;
+        this.clock = clock;
+        int size = Integer.highestOneBit(Math.min(segments, 1 << 16) * 2 - 1);
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            this.segments[i] = new Segment(perKeyCapacity);
+        }
+        this.segmentMask = size - 1;
+    }
+
+    private Segment segment(Object key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return segments[(h >>> 16) & segmentMask];
+    }
+
+    public int perKeyCapacity() {
+        return perKeyCapacity;
+    }
+
+    /** Appends the element to the key's recent elements, evicting the oldest if there are too many. */
+    public void offer(K key, E element) {
+        if (key == null || element == null) throw new NullPointerException();
+        Segment segment = segment(key);
+        long now = clock.nanoTime();
+        synchronized (segment) {
+            segment.offer(key, element, now);
+        }
+    }
+
+    /**
+     * Passes the key's recent elements to the consumer, oldest first. The consumer runs
+     * holding the lock of the key's segment and must not modify the registry.
+     *
+     * @return the number of elements passed
+     */
+    public int recent(K key, Consumer<? super E> consumer) {
+        if (consumer == null) throw new NullPointerException();
+        Segment segment = segment(key);
+        synchronized (segment) {
+            return segment.recent(key, consumer);
+        }
+    }
+
+    /** Number of recent elements held for the key. */
+    public int size(K key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            int slot = segment.index.get(key);
+            return (slot < 0) ? 0 : segment.states[slot] >>> 16;
+        }
+    }
+
+    /** Number of keys holding elements. */
+    public int keyCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.index.size();
+            }
+        }
+        return count;
+    }
+
+    /** Drops the key and its elements, returns whether it was present. */
+    public boolean remove(K key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            int slot = segment.index.get(key);
+            if (slot < 0) {
+                return false;
+            }
+            segment.release(slot);
+            return true;
+        }
+    }
+
+    /**
+     * Drops the keys that were not offered an element within {@code maxIdle}.
+     *
+     * @return the number of keys dropped
+     */
+    public int evictIdle(long maxIdle, TimeUnit unit) {
+        long maxIdleNanos = unit.toNanos(maxIdle);
+        long now = clock.nanoTime();
+        int evicted = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                evicted += segment.evictIdle(now, maxIdleNanos);
+            }
+        }
+        return evicted;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    // all fields guarded by the segment's monitor
+    private static final class Segment {
+        final int perKeyCapacity;
+        final OpenHashIntIndex index = new OpenHashIntIndex();
+        // element rings, slab i holds the rings of slots [i * SLAB_SLOTS, (i + 1) * SLAB_SLOTS)
+        Object[][] slabs = new Object[1][];
+        // live slots per slab, a slab is dropped when it reaches 0
+        int[] slabUsed = new int[1];
+        // per slot: the key, count << 16 | head, and the time of the last offer
+        Object[] keys = new Object[0];
+        int[] states = new int[0];
+        long[] touched = new long[0];
+        // slots below highWater have been handed out, free ones are on the free stack
+        int highWater;
+        int[] free = new int[0];
+        int freeCount;
+
+        Segment(int perKeyCapacity) {
+            this.perKeyCapacity = perKeyCapacity;
+        }
+
+        void offer(Object key, Object element, long now) {
+            int slot = index.get(key);
+            if (slot < 0) {
+                slot = allocate(key);
+            }
+            Object[] slab = slabs[slot / SLAB_SLOTS];
+            int base = (slot % SLAB_SLOTS) * perKeyCapacity;
+            int state = states[slot];
+            int head = state & 0xFFFF;
+            int count = state >>> 16;
+            if (count < perKeyCapacity) {
+                int tail = head + count;
+                slab[base + (tail < perKeyCapacity ? tail : tail - perKeyCapacity)] = element;
+                count++;
+            } else {
+                slab[base + head] = element;
+                if (++head == perKeyCapacity) {
+                    head = 0;
+                }
+            }
+            states[slot] = count << 16 | head;
+            touched[slot] = now;
+        }
+
+        @SuppressWarnings("unchecked")
+        <E> int recent(Object key, Consumer<? super E> consumer) {
+            int slot = index.get(key);
+            if (slot < 0) {
+                return 0;
+            }
+            Object[] slab = slabs[slot / SLAB_SLOTS];
+            int base = (slot % SLAB_SLOTS) * perKeyCapacity;
+            int state = states[slot];
+            int head = state & 0xFFFF;
+            int count = state >>> 16;
+            for (int i = 0, j = head; i < count; i++) {
+                consumer.accept((E) slab[base + j]);
+                if (++j == perKeyCapacity) {
+                    j = 0;
+                }
+            }
+            return count;
+        }
+
+        int allocate(Object key) {
+            int slot;
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                slot = highWater++;
+                if (slot == keys.length) {
+                    int length = Math.max(16, keys.length * 2);
+                    keys = Arrays.copyOf(keys, length);
+                    states = Arrays.copyOf(states, length);
+                    touched = Arrays.copyOf(touched, length);
+                }
+            }
+            int slabIndex = slot / SLAB_SLOTS;
+            if (slabIndex == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabs.length * 2);
+                slabUsed = Arrays.copyOf(slabUsed, slabUsed.length * 2);
+            }
+            if (slabs[slabIndex] == null) {
+                slabs[slabIndex] = new Object[SLAB_SLOTS * perKeyCapacity];
+            }
+            slabUsed[slabIndex]++;
+            keys[slot] = key;
+            states[slot] = 0;
+            index.put(key, slot);
+            return slot;
+        }
+
+        void release(int slot) {
+            index.remove(keys[slot]);
+            keys[slot] = null;
+            states[slot] = 0;
+            int slabIndex = slot / SLAB_SLOTS;
+            if (--slabUsed[slabIndex] == 0) {
+                slabs[slabIndex] = null;
+            } else {
+                int base = (slot % SLAB_SLOTS) * perKeyCapacity;
+                Arrays.fill(slabs[slabIndex], base, base + perKeyCapacity, null);
+            }
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, Math.max(16, free.length * 2));
+            }
+            free[freeCount++] = slot;
+        }
+
+        int evictIdle(long now, long maxIdleNanos) {
+            int evicted = 0;
+            for (int slot = 0; slot < highWater; slot++) {
+                if (keys[slot] != null && now - touched[slot] > maxIdleNanos) {
+                    release(slot);
+                    evicted++;
+                }
+            }
+            return evicted;
+        }
+
+        void clear() {
+            index.clear();
+            slabs = new Object[1][];
+            slabUsed = new int[1];
+            keys = new Object[0];
+            states = new int[0];
+            touched = new long[0];
+            highWater = 0;
+            free = new int[0];
+            freeCount = 0;
+        }
+    }
+}
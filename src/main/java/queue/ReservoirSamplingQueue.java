@@ -0,0 +1,224 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sampled-window alternative to {@link MostRecentlyInsertedBlockingQueue}: instead of the
+ * newest {@code capacity} elements it keeps a uniform random sample of up to
+ * {@code capacity} of all elements offered since the last drain, so an overloaded consumer
+ * sees the whole burst in proportion rather than only its end.
+ * <p>
+ * Sampling uses Algorithm L: once the reservoir is full, the index of the next offer to keep
+ * is drawn in advance, and the offers before it only increment a counter, without drawing a
+ * random number or allocating. Random numbers come from {@link ThreadLocalRandom}. A drain
+ * returns the sample together with the number of offers it stands for.
+ */
+public class ReservoirSamplingQueue<E> {
+
+    /** Elements drained from the queue and the number of offered elements they sample. */
+    public static final class Sample<E> {
+        private final List<E> elements;
+        private final long offered;
+
+        Sample(List<E> elements, long offered) {
+            this.elements = elements;
+            this.offered = offered;
+        }
+
+        /** The sampled elements, in no particular order. */
+        public List<E> elements() {
+            return elements;
+        }
+
+        /** Number of elements offered while this sample was collected. */
+        public long offered() {
+            return offered;
+        }
+
+        /** How many offered elements each sampled element stands for, 0 for an empty sample. */
+        public double weight() {
+            return elements.isEmpty() ? 0 : (double) offered / elements.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{elements=" + elements + ", offered=" + offered + '}';
+        }
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // guarded by lock
+    private final Object[] reservoir;
+    private int size;
+    private long offered;
+    // Algorithm L state: index of the next offer kept once full, and the current threshold
+    private long nextKept;
+    private double w;
+
+    public ReservoirSamplingQueue(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.reservoir = new Object[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Offers the element to the sample, never blocks.
+     *
+     * @return whether the element was kept in the sample
+     */
+    public boolean offer(E element) {
+        if (element == null) throw new NullPointerException();
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            long index = offered++;
+            if (size < capacity) {
+                reservoir[size++] = element;
+                if (size == capacity) {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    w = Math.exp(Math.log(nextDouble(random)) / capacity);
+                    skip(random);
+                }
+                if (index == 0) {
+                    notEmpty.signal();
+                }
+                return true;
+            }
+            if (index < nextKept) {
+                return false;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            reservoir[random.nextInt(capacity)] = element;
+            w *= Math.exp(Math.log(nextDouble(random)) / capacity);
+            skip(random);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // draws the index of the next offer to keep, from the offers counted so far
+    private void skip(ThreadLocalRandom random) {
+        double gap = Math.floor(Math.log(nextDouble(random)) / Math.log1p(-w));
+        // w close to 0 or 1 can make the gap infinite or NaN, keeping every offer is safe then
+        nextKept = (gap >= 0 && gap < Long.MAX_VALUE - offered) ? offered + (long) gap : offered;
+    }
+
+    // uniform in (0, 1), log(0) would be infinite
+    private static double nextDouble(ThreadLocalRandom random) {
+        double u;
+        while ((u = random.nextDouble()) == 0) {
+            // retry
+        }
+        return u;
+    }
+
+    /** Number of sampled elements currently held. */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Number of elements offered since the last drain. */
+    public long offeredCount() {
+        lock.lock();
+        try {
+            return offered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes and returns the current sample, which is empty if nothing was offered. */
+    public Sample<E> drain() {
+        lock.lock();
+        try {
+            return takeSample();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the current sample, waiting up to the timeout for an element to be
+     * offered if there is none. Returns an empty sample on timeout.
+     */
+    public Sample<E> drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0 && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return takeSample();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the current sample into the collection.
+     *
+     * @return the number of offered elements the moved sample stands for
+     */
+    public long drainTo(Collection<? super E> collection) {
+        if (collection == null) throw new NullPointerException();
+        Sample<E> sample = drain();
+        collection.addAll(sample.elements());
+        return sample.offered();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Sample<E> takeSample() {
+        if (size == 0) {
+            return new Sample<>(Collections.<E>emptyList(), offered);
+        }
+        List<E> elements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add((E) reservoir[i]);
+        }
+        Sample<E> sample = new Sample<>(Collections.unmodifiableList(elements), offered);
+        Arrays.fill(reservoir, 0, size, null);
+        size = 0;
+        offered = 0;
+        nextKept = 0;
+        return sample;
+    }
+
+    public void clear() {
+        drain();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ReservoirSamplingQueue{size=" + size + ", offered=" + offered + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
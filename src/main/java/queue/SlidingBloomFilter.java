@@ -0,0 +1,201 @@
+package queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate, fixed-memory companion to a recent-element window: answers whether an element
+ * was probably inserted within the last window, with no false negatives inside the window and
+ * a configured false-positive rate.
+ * <p>
+ * The window is split into {@code generations} Bloom filters. Inserts go to the current
+ * generation, queries check every generation still inside the window. Generations rotate
+ * either every {@code window / generations} inserts, matching the eviction boundary of a
+ * {@link MostRecentlyInsertedQueue} of capacity {@code window}, or every
+ * {@code window / generations} of time. One spare filter is kept, so an element is remembered
+ * for at least the window and at most one generation longer.
+ * <p>
+ * Inserts are lock-free: bits are set with a CAS, and only the first insert of a new
+ * generation takes a lock, to clear the filter it reuses.
+ */
+public class SlidingBloomFilter<E> {
+    private static final double LN2 = Math.log(2);
+
+    private static final class Filter {
+        final AtomicLongArray bits;
+        // generation the bits belong to, -1 before the first use
+        volatile long generation = -1;
+
+        Filter(int words) {
+            this.bits = new AtomicLongArray(words);
+        }
+    }
+
+    private final Filter[] filters;
+    private final int generations;
+    private final long bitCount;
+    private final int hashes;
+
+    // counted rotation: inserts per generation, or 0 for timed rotation
+    private final long insertsPerGeneration;
+    private final AtomicLong inserted = new AtomicLong();
+    // timed rotation
+    private final long generationNanos;
+    private final QueueClock clock;
+    private final long startNanos;
+
+    /**
+     * Creates a filter remembering the last {@code window} inserted elements.
+     */
+    public SlidingBloomFilter(long window, double falsePositiveRate, int generations) {
+        this(window, falsePositiveRate, generations, 0, null);
+    }
+
+    /**
+     * Creates a filter remembering the elements inserted within the last {@code window} of
+     * time, sized for {@code expectedInsertions} per window.
+     */
+    public SlidingBloomFilter(long expectedInsertions, double falsePositiveRate, int generations,
+                              long window, TimeUnit unit, QueueClock clock) {
+        this(expectedInsertions, falsePositiveRate, generations, timed(window, unit, generations), clock);
+    }
+
+    private SlidingBloomFilter(long expectedInsertions, double falsePositiveRate, int generations,
+                               long generationNanos, QueueClock clock) {
+        if (expectedInsertions <= 0 || generations <= 0) throw new IllegalArgumentException();
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) throw new IllegalArgumentException();
+        this.generations = generations;
+        this.generationNanos = generationNanos;
+        this.clock = clock;
+        this.startNanos = (clock == null) ? 0 : clock.nanoTime();
+        this.insertsPerGeneration = (clock == null) ? Math.max(1, expectedInsertions / generations) : 0;
+
+        // a query checks up to every filter, so each one gets an equal share of the error rate
+        long perGeneration = Math.max(1, (expectedInsertions + generations - 1) / generations);
+        double perFilterRate = falsePositiveRate / (generations + 1);
+        long bits = (long) Math.ceil(-perGeneration * Math.log(perFilterRate) / (LN2 * LN2));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) >>> 6);
+        this.bitCount = (long) words << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bitCount / perGeneration * LN2));
+        this.filters = new Filter[generations + 1];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = new Filter(words);
+        }
+    }
+
+    private static long timed(long window, TimeUnit unit, int generations) {
+        if (window <= 0 || generations <= 0) throw new IllegalArgumentException();
+        return Math.max(1, unit.toNanos(window) / generations);
+    }
+
+    /** Number of hash functions per filter. */
+    public int hashes() {
+        return hashes;
+    }
+
+    /** Memory used by the bit arrays, in bytes. */
+    public long sizeInBytes() {
+        return filters.length * (bitCount >>> 3);
+    }
+
+    public void put(E element) {
+        insert(hash(element));
+    }
+
+    /** Inserts a numeric id without boxing it, the same as inserting it as a {@code Long}. */
+    public void put(long id) {
+        insert(mix(id));
+    }
+
+    public boolean mightContain(Object element) {
+        return query(hash(element));
+    }
+
+    public boolean mightContain(long id) {
+        return query(mix(id));
+    }
+
+    private static long hash(Object element) {
+        return (element instanceof Long) ? mix((Long) element) : mix(element.hashCode());
+    }
+
+    private long generationForInsert() {
+        if (clock == null) {
+            return inserted.getAndIncrement() / insertsPerGeneration;
+        }
+        return (clock.nanoTime() - startNanos) / generationNanos;
+    }
+
+    private long currentGeneration() {
+        if (clock == null) {
+            return Math.max(0, inserted.get() - 1) / insertsPerGeneration;
+        }
+        return (clock.nanoTime() - startNanos) / generationNanos;
+    }
+
+    private void insert(long hash) {
+        long generation = generationForInsert();
+        Filter filter = filters[(int) (generation % filters.length)];
+        if (filter.generation != generation) {
+            rotate(filter, generation);
+        }
+        AtomicLongArray bits = filter.bits;
+        long h1 = hash;
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                // retry, another insert changed the word
+            }
+        }
+    }
+
+    // clears a filter that held an older generation before it takes the new one
+    private void rotate(Filter filter, long generation) {
+        synchronized (filter) {
+            if (filter.generation < generation) {
+                AtomicLongArray bits = filter.bits;
+                for (int i = 0; i < bits.length(); i++) {
+                    bits.lazySet(i, 0);
+                }
+                filter.generation = generation;
+            }
+        }
+    }
+
+    private boolean query(long hash) {
+        long current = currentGeneration();
+        long h1 = hash;
+        long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (Filter filter : filters) {
+            long generation = filter.generation;
+            if (generation < 0 || generation > current || current - generation > generations) {
+                continue;
+            }
+            AtomicLongArray bits = filter.bits;
+            boolean all = true;
+            for (int i = 0; i < hashes && all; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+                all = (bits.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 64-bit finalizer of MurmurHash3, spreads ids and hash codes over all bits
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
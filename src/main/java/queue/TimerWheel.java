@@ -0,0 +1,261 @@
+package queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical hashed timer wheel with four levels of 64 slots, used to expire queue elements
+ * that were offered with a time-to-live. Scheduling and expiring an entry are O(1); entries
+ * further away than the top level reaches are re-cascaded until they are due.
+ * <p>
+ * Producers hand new entries to the wheel through a lock-free inbox, and cancelled entries
+ * through a second one; only the wheel's own ticker thread touches the slots, so the wheel
+ * itself needs no locking. A cancelled entry is unlinked from its doubly linked slot in O(1)
+ * on the next tick, so it does not keep what it references reachable until its deadline.
+ * An entry that throws is reported to the ticker thread's uncaught exception handler.
+ */
+public class TimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Entry> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    /** A scheduled task, {@link #expire()} runs on the wheel thread once the deadline passed. */
+    public abstract static class Entry {
+        long deadlineTick;
+        // slot list and the index of the slot holding the entry, -1 if none, ticker thread only
+        Entry previous;
+        Entry next;
+        int slot = -1;
+        Entry inboxNext;
+        Entry cancelledNext;
+        volatile int state;
+
+        protected abstract void expire();
+    }
+
+    private static class SharedHolder {
+        static final TimerWheel WHEEL = new TimerWheel(1, TimeUnit.MILLISECONDS, true);
+    }
+
+    /** The wheel shared by all queues, ticking every millisecond on one daemon thread. */
+    public static TimerWheel shared() {
+        return SharedHolder.WHEEL;
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final AtomicReference<Entry> inbox = new AtomicReference<>();
+    private final AtomicReference<Entry> cancelledInbox = new AtomicReference<>();
+    // slot heads, indexed by level * SLOTS + slot, touched by the ticker thread only
+    private final Entry[] slots = new Entry[LEVELS * SLOTS];
+    private long currentTick;
+    private int linkedCount;
+
+    // the ticker thread never stops, so only the shared wheel starts one
+    TimerWheel(long tick, TimeUnit unit, boolean startThread) {
+        if (tick <= 0) throw new IllegalArgumentException();
+        this.tickNanos = unit.toNanos(tick);
+        this.startNanos = System.nanoTime();
+        if (startThread) {
+            Thread ticker = new Thread(this::run, "queue-timer-wheel");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    /** Schedules the entry to expire after the given delay; an entry may be scheduled only once. */
+    public void schedule(Entry entry, long delay, TimeUnit unit) {
+        long elapsed = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        schedule(entry, (elapsed + tickNanos - 1) / tickNanos);
+    }
+
+    void schedule(Entry entry, long deadlineTick) {
+        entry.deadlineTick = deadlineTick;
+        Entry head;
+        do {
+            head = inbox.get();
+            entry.inboxNext = head;
+        } while (!inbox.compareAndSet(head, entry));
+    }
+
+    /**
+     * Cancels the entry unless it already expired. The wheel drops it on the next tick and
+     * never runs it.
+     *
+     * @return false if the entry already expired or was cancelled before
+     */
+    public boolean cancel(Entry entry) {
+        if (!STATE.compareAndSet(entry, PENDING, CANCELLED)) {
+            return false;
+        }
+        Entry head;
+        do {
+            head = cancelledInbox.get();
+            entry.cancelledNext = head;
+        } while (!cancelledInbox.compareAndSet(head, entry));
+        return true;
+    }
+
+    // number of entries linked in the slots, read by tests that drive the wheel themselves
+    int linkedCount() {
+        return linkedCount;
+    }
+
+    private void run() {
+        while (true) {
+            long now = System.nanoTime() - startNanos;
+            advanceTo(now / tickNanos);
+            long nextTickNanos = (currentTick + 1) * tickNanos;
+            LockSupport.parkNanos(nextTickNanos - (System.nanoTime() - startNanos));
+        }
+    }
+
+    /** Expires every entry due up to and including the given tick, called by the ticker thread. */
+    void advanceTo(long tick) {
+        drainCancelled();
+        drainInbox();
+        while (currentTick < tick) {
+            currentTick++;
+            cascade();
+            expireSlot(slotIndex(0, currentTick));
+            drainCancelled();
+            drainInbox();
+        }
+    }
+
+    private void drainCancelled() {
+        Entry entry = cancelledInbox.getAndSet(null);
+        while (entry != null) {
+            Entry next = entry.cancelledNext;
+            entry.cancelledNext = null;
+            // an entry still in the inbox is dropped when it is placed
+            if (entry.slot >= 0) {
+                unlink(entry);
+            }
+            entry = next;
+        }
+    }
+
+    private void drainInbox() {
+        Entry entry = inbox.getAndSet(null);
+        while (entry != null) {
+            Entry next = entry.inboxNext;
+            entry.inboxNext = null;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        if (entry.state == CANCELLED) {
+            return;
+        }
+        long delta = entry.deadlineTick - currentTick;
+        if (delta <= 0) {
+            runExpire(entry);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        long tick = (delta >= 1L << (SLOT_BITS * LEVELS))
+                ? currentTick + (1L << (SLOT_BITS * LEVELS)) - 1
+                : entry.deadlineTick;
+        link(slotIndex(level, tick), entry);
+    }
+
+    // moves the entries of the higher level slots that became current one level down
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            Entry entry = detachSlot(slotIndex(level, currentTick));
+            while (entry != null) {
+                Entry next = entry.next;
+                release(entry);
+                place(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void expireSlot(int index) {
+        Entry entry = detachSlot(index);
+        while (entry != null) {
+            Entry next = entry.next;
+            release(entry);
+            if (entry.deadlineTick <= currentTick) {
+                runExpire(entry);
+            } else {
+                place(entry);
+            }
+            entry = next;
+        }
+    }
+
+    private static void runExpire(Entry entry) {
+        if (!STATE.compareAndSet(entry, PENDING, EXPIRED)) {
+            return;
+        }
+        try {
+            entry.expire();
+        } catch (RuntimeException e) {
+            // a failing entry must not stop the wheel, but must not go unnoticed either
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void link(int index, Entry entry) {
+        Entry head = slots[index];
+        entry.previous = null;
+        entry.next = head;
+        entry.slot = index;
+        if (head != null) {
+            head.previous = entry;
+        }
+        slots[index] = entry;
+        linkedCount++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous == null) {
+            slots[entry.slot] = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        release(entry);
+    }
+
+    // takes the whole list out of the slot, the caller releases every entry of it
+    private Entry detachSlot(int index) {
+        Entry head = slots[index];
+        slots[index] = null;
+        return head;
+    }
+
+    private void release(Entry entry) {
+        entry.previous = entry.next = null;
+        entry.slot = -1;
+        linkedCount--;
+    }
+
+    private static int slotIndex(int level, long tick) {
+        return level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    }
+}
@@ -0,0 +1,70 @@
+package queue;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link TraceRecordingQueue} for blocking queues, also recording put, take, the timed
+ * offer and poll, and drainTo.
+ */
+public class TraceRecordingBlockingQueue<E> extends TraceRecordingQueue<E> implements BlockingQueue<E> {
+    private final BlockingQueue<E> blockingQueue;
+
+    public TraceRecordingBlockingQueue(BlockingQueue<E> queue, QueueTrace.Writer trace,
+                                       ToLongFunction<? super E> key) {
+        super(queue, trace, key);
+        this.blockingQueue = queue;
+    }
+
+    public TraceRecordingBlockingQueue(BlockingQueue<E> queue, QueueTrace.Writer trace) {
+        this(queue, trace, element -> element.hashCode());
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException {
+        if (element == null) throw new NullPointerException();
+        blockingQueue.put(element);
+        trace.write(QueueTrace.Op.PUT, key.applyAsLong(element), 0, true, 0);
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        if (element == null) throw new NullPointerException();
+        boolean offered = blockingQueue.offer(element, timeout, unit);
+        trace.write(QueueTrace.Op.OFFER_TIMED, key.applyAsLong(element), unit.toNanos(timeout), offered, 0);
+        return offered;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E element = blockingQueue.take();
+        recordRemoval(QueueTrace.Op.TAKE, 0, element);
+        return element;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = blockingQueue.poll(timeout, unit);
+        recordRemoval(QueueTrace.Op.POLL_TIMED, unit.toNanos(timeout), element);
+        return element;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return blockingQueue.remainingCapacity();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        int drained = blockingQueue.drainTo(collection, maxElements);
+        trace.write(QueueTrace.Op.DRAIN, 0, 0, true, drained);
+        return drained;
+    }
+}
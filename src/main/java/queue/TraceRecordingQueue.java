@@ -0,0 +1,64 @@
+package queue;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Queue wrapper that records offer, poll and peek calls on the wrapped queue into a
+ * {@link QueueTrace}. Elements are recorded by a long key, so the trace can be replayed
+ * against other queue implementations. Iteration and bulk operations are not recorded.
+ */
+public class TraceRecordingQueue<E> extends AbstractQueue<E> implements Queue<E> {
+    final Queue<E> queue;
+    final QueueTrace.Writer trace;
+    final ToLongFunction<? super E> key;
+
+    public TraceRecordingQueue(Queue<E> queue, QueueTrace.Writer trace, ToLongFunction<? super E> key) {
+        if (queue == null || trace == null || key == null) throw new NullPointerException();
+        this.queue = queue;
+        this.trace = trace;
+        this.key = key;
+    }
+
+    public TraceRecordingQueue(Queue<E> queue, QueueTrace.Writer trace) {
+        this(queue, trace, element -> element.hashCode());
+    }
+
+    void recordRemoval(QueueTrace.Op op, long timeoutNanos, E element) {
+        trace.write(op, 0, timeoutNanos, element != null, element == null ? 0 : key.applyAsLong(element));
+    }
+
+    @Override
+    public boolean offer(E element) {
+        if (element == null) throw new NullPointerException();
+        boolean offered = queue.offer(element);
+        trace.write(QueueTrace.Op.OFFER, key.applyAsLong(element), 0, offered, 0);
+        return offered;
+    }
+
+    @Override
+    public E poll() {
+        E element = queue.poll();
+        recordRemoval(QueueTrace.Op.POLL, 0, element);
+        return element;
+    }
+
+    @Override
+    public E peek() {
+        E element = queue.peek();
+        recordRemoval(QueueTrace.Op.PEEK, 0, element);
+        return element;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return queue.iterator();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,10 @@
+package queue;
+
+/**
+ * Computes the weight of an element, for example its size in bytes, for queues bounded by the
+ * total weight of their elements. The weight of an element must not change while it is queued.
+ */
+@FunctionalInterface
+public interface Weigher<E> {
+    int weigh(E element);
+}
@@ -0,0 +1,249 @@
+package queue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Asserts per-operation allocation budgets of the steady-state hot paths, measured with
+ * {@code ThreadMXBean.getThreadAllocatedBytes}: a saturated offer of a linked queue may
+ * allocate exactly one node, poll, drain and iteration must not allocate per element.
+ */
+public class AllocationBudgetTest extends JSR166TestCase {
+    private static final int CAPACITY = 1024;
+    private static final int OPERATIONS = 200_000;
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Integer[] ELEMENTS = new Integer[CAPACITY];
+
+    // keeps the iteration loop from being optimized away
+    static volatile long sink;
+
+    static {
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            ELEMENTS[i] = i;
+        }
+    }
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(AllocationBudgetTest.class);
+    }
+
+    /** Same layout as the node of the queues without optional node fields. */
+    static final class LinkedNodeProbe {
+        Object element;
+        LinkedNodeProbe next;
+        LinkedNodeProbe prev;
+    }
+
+    /** Same layout as the PriorityLaneBlockingQueue node. */
+    static final class LaneNodeProbe {
+        Object element;
+        int lane;
+        LaneNodeProbe prev;
+        LaneNodeProbe next;
+        LaneNodeProbe laneNext;
+    }
+
+    interface Loop {
+        /** Runs the operations and returns the bytes allocated by setup work that must not be counted. */
+        long run(int operations);
+    }
+
+    private static boolean measurable() {
+        return THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+    }
+
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs the loop a few times to let the JIT settle and returns the lowest
+     * number of bytes allocated per operation.
+     */
+    static double bytesPerOperation(Loop loop) {
+        loop.run(OPERATIONS);
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            long excluded = loop.run(OPERATIONS);
+            long after = allocatedBytes();
+            best = Math.min(best, (double) (after - before - excluded) / OPERATIONS);
+        }
+        return best;
+    }
+
+    /** Bytes of one probe, which must have the same layout as the node of the measured queue. */
+    static double nodeBytes(final Supplier<Object> probe) {
+        final Object[] probes = new Object[OPERATIONS];
+        return bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                for (int i = 0; i < operations; i++) {
+                    probes[i] = probe.get();
+                }
+                return 0;
+            }
+        });
+    }
+
+    /** Fills the queue and returns the bytes this allocated. */
+    static long fill(Queue<Integer> queue) {
+        long before = allocatedBytes();
+        for (int i = 0; i < CAPACITY; i++) {
+            queue.offer(ELEMENTS[i]);
+        }
+        return allocatedBytes() - before;
+    }
+
+    static void assertBudget(String loop, Queue<Integer> queue, double budget, double actual) {
+        assertTrue(queue.getClass().getSimpleName() + " " + loop + " allocates " + actual
+                + " bytes per operation, budget is " + budget, actual <= budget + 0.5);
+    }
+
+    static void checkLinkedQueue(final Queue<Integer> queue, Supplier<Object> nodeProbe) {
+        if (!measurable()) {
+            return;
+        }
+        fill(queue);
+        double saturatedOffer = bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                for (int i = 0; i < operations; i++) {
+                    queue.offer(ELEMENTS[i & (CAPACITY - 1)]);
+                }
+                return 0;
+            }
+        });
+        assertBudget("saturated offer", queue, nodeBytes(nodeProbe), saturatedOffer);
+
+        queue.clear();
+        double poll = bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                long excluded = 0;
+                for (int done = 0; done < operations; done += CAPACITY) {
+                    excluded += fill(queue);
+                    for (int i = 0; i < CAPACITY; i++) {
+                        queue.poll();
+                    }
+                }
+                return excluded;
+            }
+        });
+        assertBudget("poll", queue, 0, poll);
+
+        if (queue instanceof BlockingQueue) {
+            final BlockingQueue<Integer> blockingQueue = (BlockingQueue<Integer>) queue;
+            final ArrayList<Integer> sink = new ArrayList<>(CAPACITY);
+            double drain = bytesPerOperation(new Loop() {
+                public long run(int operations) {
+                    long excluded = 0;
+                    for (int done = 0; done < operations; done += CAPACITY) {
+                        excluded += fill(queue);
+                        blockingQueue.drainTo(sink);
+                        sink.clear();
+                    }
+                    return excluded;
+                }
+            });
+            assertBudget("drain", queue, 0, drain);
+        }
+
+        fill(queue);
+        double iterate = bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                long sum = 0;
+                for (int done = 0; done < operations; done += CAPACITY) {
+                    for (Integer element : queue) {
+                        sum += element;
+                    }
+                }
+                sink = sum;
+                return 0;
+            }
+        });
+        // one iterator per traversal, amortized over the elements
+        assertBudget("iterate", queue, 0, iterate);
+    }
+
+    /**
+     * MostRecentlyInsertedQueue allocates one node per offer and nothing on poll or iteration
+     */
+    public void testMostRecentlyInsertedQueue() {
+        checkLinkedQueue(new MostRecentlyInsertedQueue<Integer>(CAPACITY), LinkedNodeProbe::new);
+    }
+
+    /**
+     * ConcurrentMostRecentlyInsertedQueue allocates one node per offer and nothing on poll or iteration
+     */
+    public void testConcurrentMostRecentlyInsertedQueue() {
+        checkLinkedQueue(new ConcurrentMostRecentlyInsertedQueue<Integer>(CAPACITY), LinkedNodeProbe::new);
+    }
+
+    /**
+     * MostRecentlyInsertedBlockingQueue allocates one node per offer and nothing on poll, drain or iteration
+     */
+    public void testMostRecentlyInsertedBlockingQueue() {
+        checkLinkedQueue(new MostRecentlyInsertedBlockingQueue<Integer>(CAPACITY), LinkedNodeProbe::new);
+    }
+
+    /**
+     * PriorityLaneBlockingQueue allocates one node per offer and nothing on poll, drain or iteration
+     */
+    public void testPriorityLaneBlockingQueue() {
+        checkLinkedQueue(new PriorityLaneBlockingQueue<Integer>(CAPACITY, 4, i -> i & 3), LaneNodeProbe::new);
+    }
+
+    /**
+     * MostRecentlyInsertedMailbox allocates nothing on offer or poll
+     */
+    public void testMostRecentlyInsertedMailbox() {
+        if (!measurable()) {
+            return;
+        }
+        final MostRecentlyInsertedMailbox<Integer> mailbox = new MostRecentlyInsertedMailbox<>();
+        double offerPoll = bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                for (int i = 0; i < operations; i++) {
+                    mailbox.offer(ELEMENTS[i & (CAPACITY - 1)]);
+                    if ((i & 1) == 0) {
+                        mailbox.poll();
+                    }
+                }
+                return 0;
+            }
+        });
+        assertBudget("offer and poll", mailbox, 0, offerPoll);
+    }
+
+    /**
+     * ReservoirSamplingQueue allocates nothing on saturated offers
+     */
+    public void testReservoirSamplingQueue() {
+        if (!measurable()) {
+            return;
+        }
+        final ReservoirSamplingQueue<Integer> q = new ReservoirSamplingQueue<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            q.offer(ELEMENTS[i]);
+        }
+        double saturatedOffer = bytesPerOperation(new Loop() {
+            public long run(int operations) {
+                for (int i = 0; i < operations; i++) {
+                    q.offer(ELEMENTS[i & (CAPACITY - 1)]);
+                }
+                return 0;
+            }
+        });
+        assertTrue("ReservoirSamplingQueue saturated offer allocates " + saturatedOffer
+                + " bytes per operation, budget is 0", saturatedOffer <= 0.5);
+    }
+}
@@ -2,10 +2,12 @@ package queue;
 
 import junit.framework.Test;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ConcurrentMostRecentlyInsertedQueueTest extends JSR166TestCase {
 
@@ -16,6 +18,14 @@ public class ConcurrentMostRecentlyInsertedQueueTest extends JSR166TestCase {
         }
     }
 
+    // soft references are only cleared when memory runs low, so the queue keeps the contract
+    public static class Soft extends BaseMostRecentlyInsertedQueueTest {
+        @Override
+        protected Queue emptyCollection(int capacity) {
+            return new ConcurrentMostRecentlyInsertedQueue(capacity, ElementReferences.SOFT);
+        }
+    }
+
     public static void main(String[] args) {
         main(suite(), args);
     }
@@ -44,6 +54,7 @@ public class ConcurrentMostRecentlyInsertedQueueTest extends JSR166TestCase {
         }
         return newTestSuite(ConcurrentMostRecentlyInsertedQueueTest.class,
                 new Bounded().testSuite(),
+                new Soft().testSuite(),
                 CollectionTest.testSuite(new Implementation()));
     }
 
@@ -295,4 +306,253 @@ public class ConcurrentMostRecentlyInsertedQueueTest extends JSR166TestCase {
         peekDone.await();
         assertEquals(SIZE, q.size());
     }
-}
\ No newline at end of file
+
+    /**
+     * Elements offered with a time-to-live are removed without polling, others stay
+     */
+    public void testOfferWithTtl() throws InterruptedException {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(SIZE);
+        q.offer(one);
+        q.offerWithTtl(two, 1, TimeUnit.MILLISECONDS);
+        q.offer(three);
+        q.offerWithTtl(four, LONG_DELAY_MS, TimeUnit.MILLISECONDS);
+        long startTime = System.nanoTime();
+        while (q.size() != 3) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("timed out waiting for expiry");
+            Thread.yield();
+        }
+        assertFalse(q.contains(two));
+        assertEquals(one, q.poll());
+        assertEquals(three, q.poll());
+        assertEquals(four, q.poll());
+        assertNull(q.poll());
+    }
+
+    /**
+     * Expiry of an element that was already polled has no effect
+     */
+    public void testOfferWithTtlAfterPoll() throws InterruptedException {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(SIZE);
+        q.offerWithTtl(one, 1, TimeUnit.MILLISECONDS);
+        assertEquals(one, q.poll());
+        q.offer(two);
+        delay(SHORT_DELAY_MS);
+        assertEquals(1, q.size());
+        assertEquals(two, q.peek());
+    }
+
+    /**
+     * Polling an element offered with a time-to-live cancels its timer, so the timer wheel
+     * no longer keeps the queue reachable
+     */
+    public void testPolledTtlElementReleasesQueue() {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(SIZE);
+        q.offerWithTtl(one, 1, TimeUnit.HOURS);
+        assertEquals(one, q.poll());
+        WeakReference<Object> queue = new WeakReference<Object>(q);
+        q = null;
+        long startTime = System.nanoTime();
+        while (queue.get() != null) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("queue still reachable from the timer wheel");
+            System.gc();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Expiry of the tail element keeps the queue appendable
+     */
+    public void testOfferWithTtlTail() throws InterruptedException {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(SIZE);
+        q.offer(one);
+        q.offerWithTtl(two, 1, TimeUnit.MILLISECONDS);
+        long startTime = System.nanoTime();
+        while (q.size() != 1) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("timed out waiting for expiry");
+            Thread.yield();
+        }
+        q.offer(three);
+        assertEquals(one, q.poll());
+        assertEquals(three, q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * offerIfAbsent rejects an element while any equal element is queued
+     */
+    public void testOfferIfAbsent() {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(3);
+        q.offer(one);
+        q.offer(one);
+        assertFalse(q.offerIfAbsent(one));
+        assertTrue(q.offerIfAbsent(two));
+        assertEquals(one, q.poll());
+        assertFalse(q.offerIfAbsent(one));
+        assertTrue(q.remove(one));
+        assertFalse(q.contains(one));
+        assertTrue(q.offerIfAbsent(one));
+        q.offer(three);
+        q.offer(four);
+        assertFalse(q.contains(two));
+        assertTrue(q.offerIfAbsent(two));
+    }
+
+    /**
+     * Concurrent offerIfAbsent calls insert every element once
+     */
+    public void testOfferIfAbsentConcurrently() throws InterruptedException {
+        final ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(1000);
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 0; i < 500; i++) {
+                        q.offerIfAbsent(i);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        assertEquals(500, q.size());
+        assertEquals(500, new HashSet<>(q).size());
+    }
+
+    /**
+     * Collects garbage until the referents of the probes are reclaimed, weak references to
+     * the same object are cleared together
+     */
+    private static void reclaim(List<WeakReference<Object>> probes) throws InterruptedException {
+        for (WeakReference<Object> probe : probes) {
+            for (int i = 0; i < 100 && probe.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(probe.get());
+        }
+    }
+
+    /**
+     * A weak queue drops elements once they are reclaimed; iteration skips them at once and
+     * the next offer, poll or peek unlinks them
+     */
+    public void testWeakElementsAreReclaimed() throws InterruptedException {
+        ConcurrentMostRecentlyInsertedQueue<Object> q =
+                new ConcurrentMostRecentlyInsertedQueue<>(SIZE, ElementReferences.WEAK);
+        assertEquals(ElementReferences.WEAK, q.elementReferences());
+        List<Object> kept = new ArrayList<>();
+        List<WeakReference<Object>> probes = new ArrayList<>();
+        for (int i = 0; i < SIZE + 1; i++) {
+            Object element = new Object();
+            q.offer(element);
+            if ((i & 1) == 0) {
+                kept.add(element);
+            } else {
+                probes.add(new WeakReference<>(element));
+            }
+        }
+        reclaim(probes);
+
+        assertEquals(kept.subList(1, kept.size()), new ArrayList<>(q));
+        assertEquals(kept.get(1), q.peek());
+        // reclaimed elements are enqueued by the reference handler thread, possibly later
+        long startTime = System.nanoTime();
+        while (q.size() > kept.size() - 1 && millisElapsedSince(startTime) < LONG_DELAY_MS) {
+            Thread.sleep(1);
+            q.peek();
+        }
+        assertEquals(kept.size() - 1, q.size());
+        for (int i = 1; i < kept.size(); i++) {
+            assertSame(kept.get(i), q.poll());
+        }
+        assertNull(q.poll());
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * poll skips nodes whose element was reclaimed but not yet unlinked
+     */
+    public void testPollSkipsReclaimed() throws InterruptedException {
+        ConcurrentMostRecentlyInsertedQueue<Object> q =
+                new ConcurrentMostRecentlyInsertedQueue<>(SIZE, ElementReferences.WEAK);
+        Object first = new Object();
+        q.offer(first);
+        List<WeakReference<Object>> probes = Collections.singletonList(new WeakReference<>(first));
+        first = null;
+        Object second = new Object();
+        q.offer(second);
+        reclaim(probes);
+        assertSame(second, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * offerIfAbsent is not supported with soft or weak references
+     */
+    public void testOfferIfAbsentNeedsStrongReferences() {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q =
+                new ConcurrentMostRecentlyInsertedQueue<>(SIZE, ElementReferences.SOFT);
+        try {
+            q.offerIfAbsent(one);
+            shouldThrow();
+        } catch (UnsupportedOperationException success) {}
+    }
+
+    /**
+     * setCapacity grows the bound in place and shrinks by dropping the oldest elements
+     */
+    public void testSetCapacity() {
+        ConcurrentMostRecentlyInsertedQueue<Integer> q = populatedQueue(SIZE);
+        q.setCapacity(2 * SIZE);
+        assertEquals(2 * SIZE, q.capacity());
+        for (int i = SIZE; i < 3 * SIZE; i++) {
+            q.offer(i);
+        }
+        assertEquals(2 * SIZE, q.size());
+        assertEquals((Integer) SIZE, q.peek());
+        q.setCapacity(1000);
+        for (int i = 0; i < 1000; i++) {
+            q.offer(i);
+        }
+        q.setCapacity(2);
+        assertEquals(Arrays.asList(998, 999), new ArrayList<>(q));
+        try {
+            q.setCapacity(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * Producers keep offering while the capacity shrinks, and the queue ends at the new capacity
+     */
+    public void testSetCapacityWithConcurrentProducers() throws InterruptedException {
+        final ConcurrentMostRecentlyInsertedQueue<Integer> q = new ConcurrentMostRecentlyInsertedQueue<>(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            q.offer(i);
+        }
+        final int producers = 2;
+        final CountDownLatch started = new CountDownLatch(producers);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    started.countDown();
+                    for (int i = 0; i < 50_000; i++) {
+                        q.offer(i);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(started);
+        q.setCapacity(10);
+        await(done);
+        assertEquals(10, q.size());
+        assertEquals(10, new ArrayList<>(q).size());
+    }
+}
@@ -0,0 +1,160 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class ConflatingMostRecentlyInsertedQueueTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(ConflatingMostRecentlyInsertedQueueTest.class);
+    }
+
+    private static void assertEntry(String key, Integer value, Map.Entry<String, Integer> entry) {
+        assertEquals(key, entry.getKey());
+        assertEquals(value, entry.getValue());
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException if capacity argument nonpositive
+     */
+    public void testConstructor() {
+        try {
+            new ConflatingMostRecentlyInsertedQueue<String, Integer>(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * put of a queued key replaces the value in place and keeps the key's position
+     */
+    public void testConflatesInPlace() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        assertNull(q.put("a", one));
+        assertNull(q.put("b", two));
+        assertEquals(one, q.put("a", three));
+        assertEquals(2, q.size());
+        assertEquals(1, q.conflationCount());
+        assertEquals(three, q.get("a"));
+        assertEntry("a", three, q.peek());
+        assertEntry("a", three, q.poll());
+        assertEntry("b", two, q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * put of a new key into the full queue evicts the oldest key
+     */
+    public void testEvictsOldestKey() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(2);
+        q.put("a", one);
+        q.put("b", two);
+        q.put("a", four);
+        q.put("c", three);
+        assertEquals(1, q.evictionCount());
+        assertFalse(q.containsKey("a"));
+        assertEquals(0, q.remainingCapacity());
+        assertEntry("b", two, q.poll());
+        assertEntry("c", three, q.poll());
+    }
+
+    /**
+     * A polled entry is not changed by later puts of its key
+     */
+    public void testPolledEntryIsSnapshot() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        q.put("a", one);
+        Map.Entry<String, Integer> entry = q.poll();
+        q.put("a", two);
+        assertEntry("a", one, entry);
+        try {
+            entry.setValue(three);
+            shouldThrow();
+        } catch (UnsupportedOperationException success) {}
+        assertEntry("a", two, q.poll());
+    }
+
+    /**
+     * drainTo returns the latest value of every key in queue order
+     */
+    public void testDrainTo() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        q.put("a", one);
+        q.put("b", two);
+        q.put("c", three);
+        q.put("a", four);
+        List<Map.Entry<String, Integer>> drained = new ArrayList<>();
+        assertEquals(2, q.drainTo(drained, 2));
+        assertEntry("a", four, drained.get(0));
+        assertEntry("b", two, drained.get(1));
+        q.put("d", five);
+        Map<String, Integer> map = new LinkedHashMap<>();
+        assertEquals(2, q.drainTo(map));
+        assertEquals("{c=3, d=5}", map.toString());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * remove unlinks a key from anywhere in the queue
+     */
+    public void testRemove() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        q.put("a", one);
+        q.put("b", two);
+        q.put("c", three);
+        assertEquals(three, q.remove("c"));
+        assertNull(q.remove("c"));
+        assertEquals(two, q.remove("b"));
+        q.put("d", four);
+        assertEquals("[a=1, d=4]", q.toString());
+        q.clear();
+        assertEquals(0, q.size());
+        assertNull(q.peek());
+    }
+
+    /**
+     * take blocks until a key is put, poll with timeout times out on an empty queue
+     */
+    public void testTakeWaitsForPut() throws InterruptedException {
+        final ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        long startTime = System.nanoTime();
+        assertNull(q.poll(timeoutMillis(), MILLISECONDS));
+        assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+
+        final CountDownLatch taking = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                taking.countDown();
+                assertEntry("a", two, q.take());
+            }
+        });
+        await(taking);
+        waitForThreadToEnterWaitState(t);
+        q.put("a", two);
+        awaitTermination(t);
+    }
+
+    /**
+     * put rejects null keys and values
+     */
+    public void testPutNull() {
+        ConflatingMostRecentlyInsertedQueue<String, Integer> q = new ConflatingMostRecentlyInsertedQueue<>(SIZE);
+        try {
+            q.put(null, one);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            q.put("a", null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+}
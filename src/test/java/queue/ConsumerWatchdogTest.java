@@ -0,0 +1,163 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class ConsumerWatchdogTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(ConsumerWatchdogTest.class);
+    }
+
+    static class RecordingListener implements ConsumerWatchdog.Listener {
+        final List<String> events = new ArrayList<>();
+
+        public void stalled(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag) {
+            events.add("stalled");
+        }
+
+        public void recovered(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag) {
+            events.add("recovered");
+        }
+    }
+
+    /**
+     * A queue with elements and no consumption is reported stalled once, and recovered after a poll
+     */
+    public void testStallAndRecovery() throws InterruptedException {
+        ConsumerWatchdog watchdog = new ConsumerWatchdog(SHORT_DELAY_MS, LONG_DELAY_MS, MILLISECONDS);
+        try {
+            MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(2);
+            RecordingListener listener = new RecordingListener();
+            watchdog.register(q, listener);
+            q.offer(one);
+            q.offer(two);
+            q.offer(three);
+            watchdog.checkAll();
+            assertFalse(watchdog.lag(q).isStalled());
+
+            delay(SHORT_DELAY_MS + 1);
+            watchdog.checkAll();
+            watchdog.checkAll();
+            ConsumerLag lag = watchdog.lag(q);
+            assertTrue(lag.isStalled());
+            assertEquals(2, lag.size());
+            assertEquals(-1, lag.oldestElementAgeNanos());
+            assertTrue(lag.nanosSinceLastConsume() >= MILLISECONDS.toNanos(SHORT_DELAY_MS));
+
+            assertEquals(two, q.poll());
+            watchdog.checkAll();
+            assertFalse(watchdog.lag(q).isStalled());
+            assertEquals(2, listener.events.size());
+            assertEquals("stalled", listener.events.get(0));
+            assertEquals("recovered", listener.events.get(1));
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * A listener that throws is reported to the uncaught exception handler, and the other
+     * queues are still checked
+     */
+    public void testFailingListenerReported() throws InterruptedException {
+        ConsumerWatchdog watchdog = new ConsumerWatchdog(SHORT_DELAY_MS, LONG_DELAY_MS, MILLISECONDS);
+        final RuntimeException failure = new RuntimeException();
+        final List<Throwable> reported = new ArrayList<>();
+        Thread current = Thread.currentThread();
+        current.setUncaughtExceptionHandler((thread, e) -> reported.add(e));
+        try {
+            MostRecentlyInsertedBlockingQueue<Integer> failing = new MostRecentlyInsertedBlockingQueue<>(2);
+            MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(2);
+            watchdog.register(failing, new RecordingListener() {
+                @Override
+                public void stalled(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag) {
+                    throw failure;
+                }
+            });
+            RecordingListener listener = new RecordingListener();
+            watchdog.register(q, listener);
+            failing.offer(one);
+            q.offer(one);
+            delay(SHORT_DELAY_MS + 1);
+            watchdog.checkAll();
+            assertEquals(1, reported.size());
+            assertSame(failure, reported.get(0));
+            assertEquals(1, listener.events.size());
+        } finally {
+            current.setUncaughtExceptionHandler(null);
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * An empty queue is never stalled
+     */
+    public void testEmptyQueueIsNotStalled() throws InterruptedException {
+        ConsumerWatchdog watchdog = new ConsumerWatchdog(1, 1, TimeUnit.HOURS);
+        try {
+            MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(2);
+            watchdog.register(q, new RecordingListener());
+            delay(2);
+            watchdog.checkAll();
+            assertFalse(watchdog.lag(q).isStalled());
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * Oldest element age and eviction rate are reported for queues with latency stats
+     */
+    public void testOldestElementAgeAndEvictions() {
+        ConsumerWatchdog watchdog = new ConsumerWatchdog(LONG_DELAY_MS, LONG_DELAY_MS, MILLISECONDS);
+        try {
+            MostRecentlyInsertedBlockingQueue<Integer> q =
+                    new MostRecentlyInsertedBlockingQueue<>(1, new QueueLatencyStats());
+            watchdog.register(q, new RecordingListener());
+            q.offer(one);
+            q.offer(two);
+            q.offer(three);
+            assertEquals(2, q.evictionCount());
+            watchdog.checkAll();
+            ConsumerLag lag = watchdog.lag(q);
+            assertTrue(lag.oldestElementAgeNanos() >= 0);
+            assertTrue(lag.evictionsPerSecond() > 0);
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+
+    /**
+     * The shared timer thread runs the checks
+     */
+    public void testTimerRunsChecks() throws InterruptedException {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        ConsumerWatchdog watchdog = new ConsumerWatchdog(1, 1, MILLISECONDS);
+        try {
+            MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(2);
+            q.offer(one);
+            watchdog.register(q, new ConsumerWatchdog.Listener() {
+                public void stalled(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag) {
+                    stalled.countDown();
+                }
+
+                public void recovered(MostRecentlyInsertedBlockingQueue<?> queue, ConsumerLag lag) {
+                }
+            });
+            await(stalled);
+            watchdog.unregister(q);
+            assertNull(watchdog.lag(q));
+        } finally {
+            watchdog.shutdown();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Constant-rate producer/consumer load generator for the queues of this package.
+ * <p>
+ * Producers send at a fixed schedule and every element carries its intended send time, so a
+ * producer that falls behind (because the queue stalled it) still charges the full delay to
+ * the measured hand-off latency. This corrects for coordinated omission. Blocking queues are
+ * driven with {@code put} and {@code take}, the others with {@code offer} and {@code poll}.
+ * <p>
+ * Consumers spend {@code service} nanoseconds on every element, so a load above
+ * {@code consumers * 1e9 / service} elements per second overloads the queue and the loss
+ * shows what its eviction policy drops.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes queue.LoadHarness
+ * [--queue=all|<simple class name>] [--capacity=1024] [--producers=1] [--consumers=1]
+ * [--rate=100000] [--service=0] [--warmup=2] [--duration=10]}, where rate is the total
+ * offered load in elements per second, at most one element per nanosecond per producer, and
+ * warmup/duration are in seconds.
+ */
+public class LoadHarness {
+
+    static final class Message {
+        final long intendedNanos;
+
+        Message(long intendedNanos) {
+            this.intendedNanos = intendedNanos;
+        }
+    }
+
+    static final class Settings {
+        String queue = "all";
+        int capacity = 1024;
+        int producers = 1;
+        int consumers = 1;
+        long rate = 100_000;
+        long serviceNanos = 0;
+        long warmupSeconds = 2;
+        long durationSeconds = 10;
+
+        static Settings parse(String[] args) {
+            Settings settings = new Settings();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("unexpected argument: " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "queue": settings.queue = value; break;
+                    case "capacity": settings.capacity = Integer.parseInt(value); break;
+                    case "producers": settings.producers = Integer.parseInt(value); break;
+                    case "consumers": settings.consumers = Integer.parseInt(value); break;
+                    case "rate": settings.rate = Long.parseLong(value); break;
+                    case "service": settings.serviceNanos = Long.parseLong(value); break;
+                    case "warmup": settings.warmupSeconds = Long.parseLong(value); break;
+                    case "duration": settings.durationSeconds = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("unknown option: " + name);
+                }
+            }
+            if (settings.capacity <= 0 || settings.producers <= 0 || settings.consumers <= 0
+                    || settings.rate <= 0 || settings.serviceNanos < 0 || settings.warmupSeconds < 0
+                    || settings.durationSeconds <= 0) {
+                throw new IllegalArgumentException("options must be positive");
+            }
+            // the send interval of each producer must be at least one nanosecond
+            if (settings.rate > TimeUnit.SECONDS.toNanos(1) * settings.producers) {
+                throw new IllegalArgumentException("rate exceeds one element per nanosecond per producer");
+            }
+            return settings;
+        }
+
+        @Override
+        public String toString() {
+            return "capacity=" + capacity + " producers=" + producers + " consumers=" + consumers
+                    + " rate=" + rate + "/s service=" + serviceNanos + "ns warmup=" + warmupSeconds
+                    + "s duration=" + durationSeconds + "s";
+        }
+    }
+
+    static final class Result {
+        final String name;
+        final long sent;
+        final long received;
+        final long lost;
+        final double elapsedSeconds;
+        final LongHistogram.Snapshot latency;
+
+        Result(String name, long sent, long received, long lost, double elapsedSeconds,
+               LongHistogram.Snapshot latency) {
+            this.name = name;
+            this.sent = sent;
+            this.received = received;
+            this.lost = lost;
+            this.elapsedSeconds = elapsedSeconds;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s sent=%d received=%d lost=%d (%.3f%%) throughput=%.0f/s%n"
+                            + "%-40s latency(ns) p50=%d p90=%d p99=%d p99.9=%d p99.99=%d max=%d",
+                    name, sent, received, lost, sent == 0 ? 0.0 : 100.0 * lost / sent, received / elapsedSeconds,
+                    "", latency.valueAtPercentile(50), latency.valueAtPercentile(90),
+                    latency.valueAtPercentile(99), latency.valueAtPercentile(99.9),
+                    latency.valueAtPercentile(99.99), latency.max());
+        }
+    }
+
+    /** Queue implementations of this package, by simple class name. */
+    static Map<String, IntFunction<Queue<Message>>> implementations() {
+        Map<String, IntFunction<Queue<Message>>> implementations = new LinkedHashMap<>();
+        implementations.put("MostRecentlyInsertedQueue", MostRecentlyInsertedQueue::new);
+        implementations.put("ConcurrentMostRecentlyInsertedQueue", ConcurrentMostRecentlyInsertedQueue::new);
+        implementations.put("MostRecentlyInsertedBlockingQueue", MostRecentlyInsertedBlockingQueue::new);
+        implementations.put("PriorityLaneBlockingQueue", capacity -> new PriorityLaneBlockingQueue<>(capacity, 1, e -> 0));
+        // always holds a single element, the capacity option does not apply
+        implementations.put("MostRecentlyInsertedMailbox", capacity -> new MostRecentlyInsertedMailbox<>());
+        return implementations;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Settings settings = Settings.parse(args);
+        Map<String, IntFunction<Queue<Message>>> implementations = implementations();
+        List<String> names = "all".equals(settings.queue)
+                ? new ArrayList<>(implementations.keySet())
+                : Arrays.asList(settings.queue.split(","));
+        System.out.println("# " + settings);
+        for (String name : names) {
+            IntFunction<Queue<Message>> factory = implementations.get(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("unknown queue: " + name + ", known: " + implementations.keySet());
+            }
+            if (settings.warmupSeconds > 0) {
+                run(name, factory.apply(settings.capacity), settings, settings.warmupSeconds);
+            }
+            System.out.println(run(name, factory.apply(settings.capacity), settings, settings.durationSeconds));
+        }
+    }
+
+    static Result run(String name, final Queue<Message> queue, final Settings settings, long seconds)
+            throws InterruptedException {
+        // MostRecentlyInsertedQueue is not thread-safe, the harness serializes access to it
+        final boolean external = queue instanceof MostRecentlyInsertedQueue;
+        final BlockingQueue<Message> blockingQueue =
+                (queue instanceof BlockingQueue) ? (BlockingQueue<Message>) queue : null;
+        final LongHistogram latency = new LongHistogram();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final CountDownLatch producersDone = new CountDownLatch(settings.producers);
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * settings.producers / settings.rate;
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < settings.producers; p++) {
+            final long offset = intervalNanos * p / settings.producers;
+            threads.add(new Thread(() -> {
+                long produced = 0;
+                try {
+                    for (long intended = start + offset; intended < end; intended += intervalNanos) {
+                        waitUntil(intended);
+                        Message message = new Message(intended);
+                        if (blockingQueue != null) {
+                            blockingQueue.put(message);
+                        } else if (external) {
+                            synchronized (queue) {
+                                queue.offer(message);
+                            }
+                        } else {
+                            queue.offer(message);
+                        }
+                        produced++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.addAndGet(produced);
+                producersDone.countDown();
+            }, name + "-producer-" + p));
+        }
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < settings.consumers; c++) {
+            consumers.add(new Thread(() -> {
+                long consumed = 0;
+                try {
+                    while (true) {
+                        Message message;
+                        if (blockingQueue != null) {
+                            // interrupted once the producers are done and the queue is drained
+                            message = blockingQueue.take();
+                        } else if (external) {
+                            synchronized (queue) {
+                                message = queue.poll();
+                            }
+                        } else {
+                            message = queue.poll();
+                        }
+                        if (message != null) {
+                            latency.record(System.nanoTime() - message.intendedNanos);
+                            consumed++;
+                            if (settings.serviceNanos > 0) {
+                                waitUntil(System.nanoTime() + settings.serviceNanos);
+                            }
+                        } else if (stop.get()) {
+                            break;
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.addAndGet(consumed);
+            }, name + "-consumer-" + c));
+        }
+        threads.addAll(consumers);
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        producersDone.await();
+        // let consumers drain what is left, then stop them
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (System.nanoTime() < drainDeadline && sizeOf(queue, external) > 0) {
+            Thread.sleep(1);
+        }
+        stop.set(true);
+        if (blockingQueue != null) {
+            for (Thread consumer : consumers) {
+                consumer.interrupt();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        long remaining = sizeOf(queue, external);
+        long lost = sent.get() - received.get() - remaining;
+        return new Result(name, sent.get(), received.get(), lost, elapsedSeconds, latency.snapshot());
+    }
+
+    // spins for the last 50 microseconds, parking is too coarse for short intervals
+    private static void waitUntil(long deadline) {
+        long now;
+        while ((now = System.nanoTime()) < deadline) {
+            long remaining = deadline - now;
+            if (remaining > 50_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            }
+        }
+    }
+
+    private static int sizeOf(Queue<?> queue, boolean external) {
+        if (external) {
+            synchronized (queue) {
+                return queue.size();
+            }
+        }
+        return queue.size();
+    }
+}
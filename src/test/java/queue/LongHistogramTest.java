@@ -0,0 +1,128 @@
+package queue;
+
+import java.util.concurrent.CountDownLatch;
+
+public class LongHistogramTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(LongHistogramTest.class);
+    }
+
+    /**
+     * Empty histogram reports zero for all statistics
+     */
+    public void testEmptySnapshot() {
+        LongHistogram.Snapshot snapshot = new LongHistogram().snapshot();
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.max());
+        assertEquals(0, snapshot.valueAtPercentile(99));
+        assertEquals(0.0, snapshot.mean());
+    }
+
+    /**
+     * Small values are recorded exactly
+     */
+    public void testSmallValuesAreExact() {
+        LongHistogram histogram = new LongHistogram();
+        for (int i = 1; i <= 50; i++) {
+            histogram.record(i);
+        }
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(50, snapshot.count());
+        assertEquals(50, snapshot.max());
+        assertEquals(25, snapshot.valueAtPercentile(50));
+        assertEquals(50, snapshot.valueAtPercentile(100));
+        assertEquals(25.5, snapshot.mean());
+    }
+
+    /**
+     * Large values are recorded within the bucket relative error
+     */
+    public void testLargeValuesRelativeError() {
+        long[] values = {1000, 123456, 987654321L, Long.MAX_VALUE / 3};
+        for (long value : values) {
+            LongHistogram histogram = new LongHistogram();
+            histogram.record(value);
+            histogram.record(1);
+            long p100 = histogram.snapshot().valueAtPercentile(100);
+            assertEquals(value, p100);
+            long bound = LongHistogram.bucketUpperBound(LongHistogram.bucketIndex(value));
+            assertTrue(bound >= value);
+            assertTrue(bound - value <= value / 32);
+        }
+    }
+
+    /**
+     * Bucket indexes are monotonic and stay in range
+     */
+    public void testBucketIndexMonotonic() {
+        int previous = -1;
+        for (long value = 0; value < 1 << 20; value += 7) {
+            int index = LongHistogram.bucketIndex(value);
+            assertTrue(index >= previous);
+            assertTrue(LongHistogram.bucketUpperBound(index) >= value);
+            previous = index;
+        }
+        assertEquals(LongHistogram.BUCKET_COUNT - 1, LongHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    /**
+     * Negative values are recorded as zero
+     */
+    public void testNegativeValue() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.snapshot().count());
+        assertEquals(0, histogram.snapshot().max());
+    }
+
+    /**
+     * Values recorded by different threads are merged in the snapshot
+     */
+    public void testRecordingThreadsAreMerged() throws InterruptedException {
+        final LongHistogram histogram = new LongHistogram();
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 0; i < 1000; i++) {
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads * 1000, snapshot.count());
+        assertEquals(999, snapshot.max());
+    }
+
+    /**
+     * The buckets of terminated threads are kept in the totals but their recorders are dropped
+     */
+    public void testTerminatedThreadsAreRetired() throws InterruptedException {
+        final LongHistogram histogram = new LongHistogram();
+        for (int t = 0; t < 10; t++) {
+            awaitTermination(newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 1; i <= 100; i++) {
+                        histogram.record(i);
+                    }
+                }
+            }));
+        }
+        histogram.record(1000);
+        assertEquals(1, histogram.recorderCount());
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.count());
+        assertEquals(1000, snapshot.max());
+        assertEquals((10 * 5050 + 1000) / 1001.0, snapshot.mean());
+        assertEquals(1, histogram.recorderCount());
+    }
+}
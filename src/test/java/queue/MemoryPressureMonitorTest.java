@@ -0,0 +1,188 @@
+package queue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+public class MemoryPressureMonitorTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(MemoryPressureMonitorTest.class);
+    }
+
+    private static <Q extends Queue<Integer>> Q filled(Q queue, int n) {
+        for (int i = 0; i < n; i++) {
+            queue.offer(i);
+        }
+        return queue;
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException for thresholds out of order or out of range
+     */
+    public void testConstructor() {
+        double[][] invalid = {{0.5, 0.6, 0.5}, {1.0, 0.5, 0.5}, {0.9, 0.0, 0.5}, {0.9, 0.5, 0.0}, {0.9, 0.5, 1.0}};
+        for (double[] args : invalid) {
+            try {
+                new MemoryPressureMonitor(args[0], args[1], args[2]).close();
+                shouldThrow();
+            } catch (IllegalArgumentException success) {}
+        }
+    }
+
+    /**
+     * Pressure starts at the high threshold and clears only below the low one
+     */
+    public void testHysteresis() {
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.25)) {
+            monitor.update(0.79);
+            assertFalse(monitor.isUnderPressure());
+            monitor.update(0.8);
+            assertTrue(monitor.isUnderPressure());
+            monitor.update(0.6);
+            monitor.update(0.9);
+            assertTrue(monitor.isUnderPressure());
+            assertEquals(1, monitor.pressureCount());
+            monitor.update(0.49);
+            assertFalse(monitor.isUnderPressure());
+            monitor.update(0.7);
+            assertFalse(monitor.isUnderPressure());
+            monitor.update(0.85);
+            assertEquals(2, monitor.pressureCount());
+        }
+    }
+
+    /**
+     * Under pressure the thread-safe queues drop their oldest elements at once and keep the
+     * smaller capacity until the pressure clears
+     */
+    public void testShrinksAndRestoresThreadSafeQueues() {
+        ConcurrentMostRecentlyInsertedQueue<Integer> concurrent =
+                filled(new ConcurrentMostRecentlyInsertedQueue<Integer>(SIZE), SIZE);
+        MostRecentlyInsertedBlockingQueue<Integer> blocking =
+                filled(new MostRecentlyInsertedBlockingQueue<Integer>(SIZE), SIZE);
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.25)) {
+            monitor.register(concurrent);
+            monitor.register(blocking);
+            monitor.update(0.9);
+            assertEquals(Arrays.asList(15, 16, 17, 18, 19), new ArrayList<>(concurrent));
+            assertEquals(Arrays.asList(15, 16, 17, 18, 19), new ArrayList<>(blocking));
+            assertEquals(15, blocking.evictionCount());
+            assertEquals(0, blocking.remainingCapacity());
+            concurrent.offer(20);
+            blocking.offer(20);
+            assertEquals(5, concurrent.size());
+            assertEquals(5, blocking.size());
+
+            monitor.update(0.4);
+            assertEquals(SIZE - 5, blocking.remainingCapacity());
+            filled(concurrent, SIZE);
+            filled(blocking, SIZE);
+            assertEquals(SIZE, concurrent.size());
+            assertEquals(SIZE, blocking.size());
+        }
+    }
+
+    /**
+     * MostRecentlyInsertedQueue trims to the lowered capacity on its next offer
+     */
+    public void testShrinksQueueOnNextOffer() {
+        MostRecentlyInsertedQueue<Integer> queue = filled(new MostRecentlyInsertedQueue<Integer>(SIZE), SIZE);
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.25)) {
+            monitor.register(queue);
+            monitor.update(0.9);
+            assertEquals(SIZE, queue.size());
+            queue.offer(SIZE);
+            assertEquals(Arrays.asList(16, 17, 18, 19, 20), new ArrayList<>(queue));
+            monitor.update(0.1);
+            filled(queue, SIZE);
+            assertEquals(SIZE, queue.size());
+        }
+    }
+
+    /**
+     * A capacity set on the owner thread is scaled while under pressure and kept once the
+     * pressure clears
+     */
+    public void testSetCapacityUnderPressure() {
+        MostRecentlyInsertedQueue<Integer> queue = filled(new MostRecentlyInsertedQueue<Integer>(SIZE), SIZE);
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.25)) {
+            monitor.register(queue);
+            monitor.update(0.9);
+            queue.setCapacity(2 * SIZE);
+            assertEquals(SIZE / 2, queue.size());
+            filled(queue, 2 * SIZE);
+            assertEquals(SIZE / 2, queue.size());
+            monitor.update(0.1);
+            filled(queue, 2 * SIZE);
+            assertEquals(2 * SIZE, queue.capacity());
+            assertEquals(2 * SIZE, queue.size());
+        }
+    }
+
+    /**
+     * Closing the monitor puts back the collection usage thresholds it replaced
+     */
+    public void testCloseRestoresThresholds() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        List<Long> before = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+                before.add(pool.getCollectionUsageThreshold());
+            }
+        }
+        new MemoryPressureMonitor(0.8, 0.5, 0.25).close();
+        for (int i = 0; i < pools.size(); i++) {
+            assertEquals(pools.get(i).getName(), (long) before.get(i),
+                    pools.get(i).getCollectionUsageThreshold());
+        }
+    }
+
+    /**
+     * A queue registered under pressure starts shrunk, and closing the monitor restores it
+     */
+    public void testRegisterUnderPressureAndClose() {
+        MostRecentlyInsertedBlockingQueue<Integer> queue =
+                filled(new MostRecentlyInsertedBlockingQueue<Integer>(SIZE), SIZE);
+        MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.5);
+        monitor.update(0.95);
+        monitor.register(queue);
+        assertEquals(SIZE / 2, queue.size());
+        monitor.close();
+        assertFalse(monitor.isUnderPressure());
+        assertEquals(SIZE / 2, queue.remainingCapacity());
+    }
+
+    /**
+     * A blocked producer resumes when the pressure clears and room appears
+     */
+    public void testRestoreWakesBlockedProducer() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> queue =
+                new MostRecentlyInsertedBlockingQueue<>(2, OverflowPolicy.BLOCK);
+        final MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.8, 0.5, 0.5);
+        try {
+            monitor.register(queue);
+            monitor.update(0.9);
+            queue.put(one);
+            Thread t = newStartedThread(new CheckedRunnable() {
+                public void realRun() throws InterruptedException {
+                    queue.put(two);
+                }
+            });
+            waitForThreadToEnterWaitState(t);
+            monitor.update(0.1);
+            awaitTermination(t);
+            assertEquals(Arrays.asList(one, two), new ArrayList<>(queue));
+        } finally {
+            monitor.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package queue;
 
 import junit.framework.Test;
+import java.lang.ref.WeakReference;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -15,6 +16,12 @@ public class MostRecentlyInsertedBlockingQueueTest extends JSR166TestCase {
         }
     }
 
+    public static class Indexed extends BlockingQueueTest {
+        protected BlockingQueue emptyCollection() {
+            return new MostRecentlyInsertedBlockingQueue(SIZE, ElementIndex.EQUALITY);
+        }
+    }
+
     public static void main(String[] args) {
         main(suite(), args);
     }
@@ -44,6 +51,7 @@ public class MostRecentlyInsertedBlockingQueueTest extends JSR166TestCase {
 
         return newTestSuite(MostRecentlyInsertedBlockingQueueTest.class,
                 new Bounded().testSuite(),
+                new Indexed().testSuite(),
                 CollectionTest.testSuite(new Implementation()));
     }
 
@@ -451,4 +459,618 @@ public class MostRecentlyInsertedBlockingQueueTest extends JSR166TestCase {
             });
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Latency stats record put lock waits, evictions, residency and take waits
+     */
+    public void testLatencyStats() throws InterruptedException {
+        QueueLatencyStats stats = new QueueLatencyStats();
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, stats);
+        assertSame(stats, q.latencyStats());
+        q.offer(one);
+        q.put(two);
+        assertTrue(q.offer(three, LONG_DELAY_MS, MILLISECONDS));
+        assertEquals(3, stats.putLockWait().snapshot().count());
+        assertEquals(1, stats.evictionLockHold().snapshot().count());
+
+        assertEquals(two, q.take());
+        assertEquals(three, q.poll(LONG_DELAY_MS, MILLISECONDS));
+        assertNull(q.poll(0, MILLISECONDS));
+        assertEquals(3, stats.takeWait().snapshot().count());
+        assertEquals(2, stats.residency().snapshot().count());
+
+        q.offer(four);
+        q.drainTo(new ArrayList<Integer>());
+        assertEquals(3, stats.residency().snapshot().count());
+    }
+
+    /**
+     * Queue created without stats reports none
+     */
+    public void testNoLatencyStats() {
+        assertNull(new MostRecentlyInsertedBlockingQueue(1).latencyStats());
+    }
+
+    /**
+     * Elements older than maxAge are expired on offer, poll, peek and iteration
+     */
+    public void testMaxAge() throws InterruptedException {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(10, 30, TimeUnit.SECONDS, clock);
+        q.offer(one);
+        clock.advance(20, TimeUnit.SECONDS);
+        q.put(two);
+        clock.advance(11, TimeUnit.SECONDS);
+        assertEquals(two, q.peek());
+        assertEquals(1, q.size());
+        assertEquals(1, q.evictionCount());
+
+        q.offer(three);
+        Iterator<Integer> it = q.iterator();
+        assertSame(two, it.next());
+        clock.advance(20, TimeUnit.SECONDS);
+        assertEquals(three, q.take());
+        clock.advance(31, TimeUnit.SECONDS);
+        assertNull(q.poll());
+        assertNull(q.poll(0, MILLISECONDS));
+        assertEquals(0, q.size());
+    }
+
+    /**
+     * take waits for a live element when all queued elements expired
+     */
+    public void testMaxAgeTakeSkipsExpired() throws InterruptedException {
+        final ManualQueueClock clock = new ManualQueueClock();
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(10, 30, TimeUnit.SECONDS, clock);
+        q.offer(one);
+        clock.advance(31, TimeUnit.SECONDS);
+        final CountDownLatch taking = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                taking.countDown();
+                assertSame(two, q.take());
+            }
+        });
+        await(taking);
+        q.offer(two);
+        awaitTermination(t);
+        assertEquals(1, q.evictionCount());
+    }
+
+    /**
+     * drainTo skips expired elements
+     */
+    public void testMaxAgeDrainTo() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(10, 30, TimeUnit.SECONDS, clock);
+        q.offer(one);
+        clock.advance(20, TimeUnit.SECONDS);
+        q.offer(two);
+        clock.advance(20, TimeUnit.SECONDS);
+        ArrayList<Integer> drained = new ArrayList<>();
+        assertEquals(1, q.drainTo(drained));
+        assertEquals(Collections.singletonList(two), drained);
+    }
+
+    /**
+     * Elements offered with a time-to-live are removed without polling and counted as evicted
+     */
+    public void testOfferWithTtl() throws InterruptedException {
+        MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(SIZE);
+        q.offer(one);
+        q.offerWithTtl(two, 1, MILLISECONDS);
+        q.offerWithTtl(three, 1, MILLISECONDS);
+        q.offer(four);
+        long startTime = System.nanoTime();
+        while (q.size() != 2) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("timed out waiting for expiry");
+            Thread.yield();
+        }
+        assertEquals(2, q.evictionCount());
+        assertEquals(SIZE - 2, q.remainingCapacity());
+        assertEquals(one, q.take());
+        assertEquals(four, q.take());
+        q.offer(five);
+        assertEquals(five, q.poll());
+    }
+
+    /**
+     * Polling an element offered with a time-to-live cancels its timer, so the timer wheel
+     * no longer keeps the queue reachable
+     */
+    public void testPolledTtlElementReleasesQueue() {
+        MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(SIZE);
+        q.offerWithTtl(one, 1, TimeUnit.HOURS);
+        assertEquals(one, q.poll());
+        WeakReference<Object> queue = new WeakReference<Object>(q);
+        q = null;
+        long startTime = System.nanoTime();
+        while (queue.get() != null) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("queue still reachable from the timer wheel");
+            System.gc();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * A weight-bounded queue evicts the oldest elements until the new element fits
+     */
+    public void testMaxWeightEvictsOldest() throws InterruptedException {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(SIZE, 10, Integer::intValue);
+        assertEquals(10, q.maxWeight());
+        q.offer(three);
+        q.offer(four);
+        q.offer(two);
+        assertEquals(9, q.weight());
+        q.put(five);
+        assertEquals(2, q.size());
+        assertEquals(7, q.weight());
+        assertEquals(2, q.evictionCount());
+        assertEquals(two, q.take());
+        assertEquals(5, q.weight());
+        assertEquals(five, q.poll());
+        assertEquals(0, q.weight());
+    }
+
+    /**
+     * An element heavier than the maximum weight is rejected
+     */
+    public void testMaxWeightRejectsHeavyElement() {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(SIZE, 3, Integer::intValue);
+        q.offer(one);
+        try {
+            q.offer(four);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        assertEquals(1, q.size());
+        assertEquals(1, q.weight());
+    }
+
+    /**
+     * The element count still bounds a weight-bounded queue
+     */
+    public void testMaxWeightCapacity() {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, 100, Integer::intValue);
+        q.offer(one);
+        q.offer(two);
+        q.offer(three);
+        assertEquals(2, q.size());
+        assertEquals(5, q.weight());
+    }
+
+    /**
+     * drainTo and remove release the weight of the removed elements
+     */
+    public void testMaxWeightDrainToAndRemove() {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(SIZE, 100, Integer::intValue);
+        q.offer(one);
+        q.offer(two);
+        q.offer(three);
+        assertTrue(q.remove(two));
+        assertEquals(4, q.weight());
+        ArrayList<Integer> drained = new ArrayList<>();
+        assertEquals(2, q.drainTo(drained));
+        assertEquals(0, q.weight());
+    }
+
+    /**
+     * A weight-bounded queue needs a positive maximum weight and a weigher
+     */
+    public void testMaxWeightConstructor() {
+        try {
+            new MostRecentlyInsertedBlockingQueue<Integer>(SIZE, 0, Integer::intValue);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new MostRecentlyInsertedBlockingQueue<Integer>(SIZE, 10, (Weigher<Integer>) null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * DROP_NEWEST rejects offers into the full queue and put discards the element
+     */
+    public void testDropNewest() throws InterruptedException {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, OverflowPolicy.DROP_NEWEST);
+        assertEquals(OverflowPolicy.DROP_NEWEST, q.overflowPolicy());
+        assertTrue(q.offer(one));
+        assertTrue(q.offer(two));
+        assertFalse(q.offer(three));
+        q.put(four);
+        assertFalse(q.offer(five, SHORT_DELAY_MS, MILLISECONDS));
+        assertEquals(3, q.evictionCount());
+        assertEquals(one, q.poll());
+        assertEquals(two, q.poll());
+        assertNull(q.poll());
+    }
+
+    /**
+     * BLOCK makes put wait interruptibly for a consumer and offer fail when full
+     */
+    public void testBlockPutWaitsForTake() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(1, OverflowPolicy.BLOCK);
+        q.put(one);
+        assertFalse(q.offer(two));
+        long startTime = System.nanoTime();
+        assertFalse(q.offer(two, timeoutMillis(), MILLISECONDS));
+        assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+
+        final CountDownLatch pleaseInterrupt = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                q.put(three);
+                pleaseInterrupt.countDown();
+                try {
+                    q.put(four);
+                    shouldThrow();
+                } catch (InterruptedException success) {
+                }
+                assertFalse(Thread.interrupted());
+            }
+        });
+
+        waitForThreadToEnterWaitState(t);
+        assertEquals(one, q.take());
+        await(pleaseInterrupt);
+        assertThreadStaysAlive(t);
+        t.interrupt();
+        awaitTermination(t);
+        assertEquals(three, q.poll());
+        assertEquals(0, q.evictionCount());
+    }
+
+    /**
+     * BLOCK wakes a producer when remove makes room
+     */
+    public void testBlockRemoveSignalsProducer() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, OverflowPolicy.BLOCK);
+        q.put(one);
+        q.put(two);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                assertTrue(q.offer(three, LONG_DELAY_MS, MILLISECONDS));
+            }
+        });
+        waitForThreadToEnterWaitState(t);
+        assertTrue(q.remove(one));
+        awaitTermination(t);
+        assertEquals(two, q.poll());
+        assertEquals(three, q.poll());
+    }
+
+    /**
+     * BLOCK wakes every waiting producer when consumers make room for all of them
+     */
+    public void testBlockWakesSeveralProducers() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, OverflowPolicy.BLOCK);
+        q.put(one);
+        q.put(two);
+        Thread t1 = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                q.put(three);
+            }
+        });
+        Thread t2 = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                q.put(four);
+            }
+        });
+        waitForThreadToEnterWaitState(t1);
+        waitForThreadToEnterWaitState(t2);
+        assertEquals(one, q.poll());
+        assertEquals(two, q.poll());
+        awaitTermination(t1);
+        awaitTermination(t2);
+        assertEquals(2, q.size());
+        assertEquals(0, q.evictionCount());
+    }
+
+    /**
+     * BLOCK_THEN_DROP_OLDEST evicts the oldest element once the maximum block time passed
+     */
+    public void testBlockThenDropOldestEvictsAfterTimeout() throws InterruptedException {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(1, OverflowPolicy.BLOCK_THEN_DROP_OLDEST,
+                        timeoutMillis(), MILLISECONDS);
+        q.put(one);
+        long startTime = System.nanoTime();
+        q.put(two);
+        assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+        assertEquals(1, q.evictionCount());
+        assertTrue(q.offer(three));
+        assertEquals(2, q.evictionCount());
+        assertEquals(three, q.poll());
+    }
+
+    /**
+     * BLOCK_THEN_DROP_OLDEST loses nothing if a consumer makes room in time
+     */
+    public void testBlockThenDropOldestWaitsForTake() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(1, OverflowPolicy.BLOCK_THEN_DROP_OLDEST,
+                        LONG_DELAY_MS, MILLISECONDS);
+        q.put(one);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                q.put(two);
+            }
+        });
+        waitForThreadToEnterWaitState(t);
+        assertEquals(one, q.take());
+        awaitTermination(t);
+        assertEquals(two, q.take());
+        assertEquals(0, q.evictionCount());
+    }
+
+    /**
+     * The overflow policy must not be null and the maximum block time not negative
+     */
+    public void testOverflowPolicyConstructor() {
+        try {
+            new MostRecentlyInsertedBlockingQueue<Integer>(SIZE, (OverflowPolicy) null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            new MostRecentlyInsertedBlockingQueue<Integer>(SIZE, OverflowPolicy.BLOCK_THEN_DROP_OLDEST, -1, MILLISECONDS);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * An equality index removes the oldest of several equal elements and keeps contains exact
+     */
+    public void testEqualityIndex() throws InterruptedException {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(4, ElementIndex.EQUALITY);
+        q.offer(one);
+        q.offer(two);
+        q.offer(new Integer(1));
+        q.offer(three);
+        assertTrue(q.remove(one));
+        assertTrue(q.contains(one));
+        assertEquals(two, q.peek());
+        q.offer(four);
+        q.offer(five);
+        assertFalse(q.contains(two));
+        assertTrue(q.contains(one));
+        assertEquals(one, q.take());
+        assertFalse(q.contains(one));
+        assertFalse(q.remove(one));
+        assertTrue(q.remove(four));
+        ArrayList<Integer> drained = new ArrayList<>();
+        assertEquals(2, q.drainTo(drained));
+        assertEquals(Arrays.asList(three, five), drained);
+        assertFalse(q.contains(three));
+        assertFalse(q.contains(five));
+        assertFalse(q.contains(null));
+    }
+
+    /**
+     * An identity index only matches the same instance
+     */
+    public void testIdentityIndex() {
+        MostRecentlyInsertedBlockingQueue<String> q =
+                new MostRecentlyInsertedBlockingQueue<>(SIZE, ElementIndex.IDENTITY);
+        String a = new String("handle");
+        String b = new String("handle");
+        q.offer(a);
+        q.offer(b);
+        assertFalse(q.contains(new String("handle")));
+        assertTrue(q.remove(b));
+        assertFalse(q.contains(b));
+        assertTrue(q.contains(a));
+        Iterator<String> it = q.iterator();
+        assertSame(a, it.next());
+        it.remove();
+        assertFalse(q.contains(a));
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * Elements expired by their time-to-live leave the index
+     */
+    public void testIndexWithTtl() {
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(SIZE, ElementIndex.EQUALITY);
+        q.offerWithTtl(one, 1, MILLISECONDS);
+        long startTime = System.nanoTime();
+        while (q.contains(one)) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("timed out waiting for expiry");
+            Thread.yield();
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * setCapacity grows the bound in place and shrinks by evicting the oldest elements
+     */
+    public void testSetCapacity() {
+        MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            q.offer(i);
+        }
+        q.setCapacity(2 * SIZE);
+        assertEquals(2 * SIZE, q.capacity());
+        assertEquals(SIZE, q.remainingCapacity());
+        for (int i = SIZE; i < 3 * SIZE; i++) {
+            q.offer(i);
+        }
+        assertEquals(2 * SIZE, q.size());
+        assertEquals(SIZE, q.evictionCount());
+        q.setCapacity(1000);
+        for (int i = 0; i < 1000; i++) {
+            q.offer(i);
+        }
+        q.setCapacity(2);
+        assertEquals(Arrays.asList(998, 999), new ArrayList<>(q));
+        assertEquals(SIZE + 2 * SIZE + 998, q.evictionCount());
+        assertEquals(0, q.remainingCapacity());
+        try {
+            q.setCapacity(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * A shrinking setCapacity records the lock hold of every eviction
+     */
+    public void testSetCapacityRecordsEvictionLockHold() {
+        QueueLatencyStats stats = new QueueLatencyStats();
+        MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(1000, stats);
+        for (int i = 0; i < 1000; i++) {
+            q.offer(i);
+        }
+        q.setCapacity(2);
+        assertEquals(998, stats.evictionLockHold().snapshot().count());
+        assertEquals(998, q.evictionCount());
+    }
+
+    /**
+     * Growing the capacity wakes a producer blocked on the full queue
+     */
+    public void testSetCapacityWakesBlockedProducer() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(1, OverflowPolicy.BLOCK);
+        q.put(one);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                q.put(two);
+            }
+        });
+        waitForThreadToEnterWaitState(t);
+        q.setCapacity(2);
+        awaitTermination(t);
+        assertEquals(Arrays.asList(one, two), new ArrayList<>(q));
+    }
+
+    /**
+     * Producers keep offering while the capacity shrinks, evicting one element each, and the
+     * queue ends at the new capacity
+     */
+    public void testSetCapacityWithConcurrentProducers() throws InterruptedException {
+        final MostRecentlyInsertedBlockingQueue<Integer> q = new MostRecentlyInsertedBlockingQueue<>(100_000);
+        for (int i = 0; i < 100_000; i++) {
+            q.offer(i);
+        }
+        final int producers = 2;
+        final CountDownLatch started = new CountDownLatch(producers);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    started.countDown();
+                    for (int i = 0; i < 50_000; i++) {
+                        q.offer(i);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(started);
+        q.setCapacity(10);
+        await(done);
+        assertEquals(10, q.size());
+        assertEquals(10, new ArrayList<>(q).size());
+        assertEquals(200_000 - 10, q.evictionCount());
+    }
+
+    /**
+     * The builder rejects invalid arguments when they are set
+     */
+    public void testBuilderRejectsInvalidArguments() {
+        try {
+            MostRecentlyInsertedBlockingQueue.builder(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        MostRecentlyInsertedBlockingQueue.Builder<Integer> builder = MostRecentlyInsertedBlockingQueue.builder(SIZE);
+        try {
+            builder.maxAge(0, TimeUnit.SECONDS);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            builder.clock(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            builder.maxWeight(0, Integer::intValue);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            builder.overflowPolicy(OverflowPolicy.BLOCK_THEN_DROP_OLDEST, -1, MILLISECONDS);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            builder.elementIndex(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        assertEquals(SIZE, builder.build().remainingCapacity());
+    }
+
+    /**
+     * An indexed sliding-window queue stamps its nodes, so only the old elements expire
+     */
+    public void testBuilderIndexWithMaxAge() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedBlockingQueue<Integer> q = MostRecentlyInsertedBlockingQueue.<Integer>builder(10)
+                .elementIndex(ElementIndex.EQUALITY).maxAge(30, TimeUnit.SECONDS).clock(clock).build();
+        q.offer(one);
+        clock.advance(20, TimeUnit.SECONDS);
+        q.offer(two);
+        clock.advance(11, TimeUnit.SECONDS);
+        assertEquals(two, q.peek());
+        assertFalse(q.contains(one));
+        assertTrue(q.contains(two));
+        assertEquals(1, q.evictionCount());
+        assertTrue(q.remove(two));
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * A weight-bounded sliding-window queue releases the weight of expired elements
+     */
+    public void testBuilderWeightWithMaxAge() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedBlockingQueue<Integer> q = MostRecentlyInsertedBlockingQueue.<Integer>builder(10)
+                .maxWeight(10, Integer::intValue).maxAge(30, TimeUnit.SECONDS).clock(clock).build();
+        q.offer(four);
+        clock.advance(20, TimeUnit.SECONDS);
+        q.offer(five);
+        assertEquals(9, q.weight());
+        clock.advance(11, TimeUnit.SECONDS);
+        q.offer(five);
+        assertEquals(Arrays.asList(five, five), new ArrayList<>(q));
+        assertEquals(10, q.weight());
+    }
+
+    /**
+     * An overflow policy combines with latency stats
+     */
+    public void testBuilderPolicyWithStats() {
+        QueueLatencyStats stats = new QueueLatencyStats();
+        MostRecentlyInsertedBlockingQueue<Integer> q = MostRecentlyInsertedBlockingQueue.<Integer>builder(1)
+                .overflowPolicy(OverflowPolicy.DROP_NEWEST).latencyStats(stats).build();
+        assertSame(stats, q.latencyStats());
+        assertEquals(OverflowPolicy.DROP_NEWEST, q.overflowPolicy());
+        assertTrue(q.offer(one));
+        assertFalse(q.offer(two));
+        assertEquals(one, q.poll());
+        assertEquals(1, q.evictionCount());
+        assertEquals(2, stats.putLockWait().snapshot().count());
+        assertEquals(1, stats.residency().snapshot().count());
+    }
+}
@@ -0,0 +1,169 @@
+package queue;
+
+import junit.framework.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class MostRecentlyInsertedMailboxTest extends JSR166TestCase {
+
+    public static class Bounded extends BlockingQueueTest {
+        protected BlockingQueue emptyCollection() {
+            return new MostRecentlyInsertedMailbox();
+        }
+
+        /**
+         * remove(x) removes x and returns true if present; the inherited version
+         * needs a capacity of at least two
+         */
+        @Override
+        public void testRemoveElement() {
+            final BlockingQueue q = emptyCollection();
+            assertFalse(q.remove(one));
+            q.add(one);
+            assertFalse(q.remove(two));
+            assertTrue(q.contains(one));
+            assertTrue(q.remove(one));
+            assertFalse(q.remove(one));
+            checkEmpty(q);
+        }
+    }
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    // the Collection contract tests need room for more than one element
+    public static Test suite() {
+        return newTestSuite(MostRecentlyInsertedMailboxTest.class,
+                new Bounded().testSuite());
+    }
+
+    /**
+     * offer replaces the held element and counts the eviction
+     */
+    public void testOfferReplaces() {
+        MostRecentlyInsertedMailbox<Integer> q = new MostRecentlyInsertedMailbox<>();
+        assertEquals(1, q.remainingCapacity());
+        assertTrue(q.offer(one));
+        assertTrue(q.offer(two));
+        q.add(three);
+        assertEquals(1, q.size());
+        assertEquals(0, q.remainingCapacity());
+        assertEquals(2, q.evictionCount());
+        assertEquals(three, q.peek());
+        assertEquals(three, q.poll());
+        assertNull(q.poll());
+        assertNull(q.peek());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * take blocks interruptibly until an element is offered
+     */
+    public void testTakeWaitsForOffer() throws InterruptedException {
+        final MostRecentlyInsertedMailbox<Integer> q = new MostRecentlyInsertedMailbox<>();
+        final CountDownLatch pleaseInterrupt = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                assertEquals(one, q.take());
+                pleaseInterrupt.countDown();
+                try {
+                    q.take();
+                    shouldThrow();
+                } catch (InterruptedException success) {
+                }
+                assertFalse(Thread.interrupted());
+            }
+        });
+        waitForThreadToEnterWaitState(t);
+        q.put(one);
+        await(pleaseInterrupt);
+        assertThreadStaysAlive(t);
+        t.interrupt();
+        awaitTermination(t);
+    }
+
+    /**
+     * Every blocked consumer eventually receives one of the offered elements
+     */
+    public void testSeveralWaiters() throws InterruptedException {
+        final MostRecentlyInsertedMailbox<Integer> q = new MostRecentlyInsertedMailbox<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() throws InterruptedException {
+                    assertNotNull(q.poll(LONG_DELAY_MS, MILLISECONDS));
+                    done.countDown();
+                }
+            });
+        }
+        long startTime = System.nanoTime();
+        while (done.getCount() > 0) {
+            if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                fail("timed out waiting for consumers");
+            if (q.isEmpty())
+                q.offer(one);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Timed polls that time out or are interrupted leave no waiter on the stack, and a
+     * consumer blocked meanwhile still receives the next element
+     */
+    public void testTimedOutPollsLeaveNoWaiters() throws InterruptedException {
+        final MostRecentlyInsertedMailbox<Integer> q = new MostRecentlyInsertedMailbox<>();
+        for (int i = 0; i < 20; i++) {
+            assertNull(q.poll(1, MILLISECONDS));
+        }
+        assertEquals(0, q.waiterCount());
+
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                assertEquals(one, q.take());
+            }
+        });
+        waitForThreadToEnterWaitState(t);
+        for (int i = 0; i < 20; i++) {
+            assertNull(q.poll(1, MILLISECONDS));
+        }
+        Thread.currentThread().interrupt();
+        try {
+            q.poll(LONG_DELAY_MS, MILLISECONDS);
+            shouldThrow();
+        } catch (InterruptedException success) {
+        }
+        q.offer(one);
+        awaitTermination(t);
+        assertEquals(0, q.waiterCount());
+    }
+
+    /**
+     * drainTo moves at most the one held element, iterator remove keeps a newer element
+     */
+    public void testDrainToAndIterator() {
+        MostRecentlyInsertedMailbox<Integer> q = new MostRecentlyInsertedMailbox<>();
+        ArrayList<Integer> drained = new ArrayList<>();
+        assertEquals(0, q.drainTo(drained));
+        q.offer(one);
+        assertEquals(1, q.drainTo(drained, 5));
+        assertEquals(one, drained.get(0));
+
+        q.offer(two);
+        Iterator<Integer> it = q.iterator();
+        assertEquals(two, it.next());
+        assertFalse(it.hasNext());
+        q.offer(three);
+        it.remove();
+        assertEquals(three, q.peek());
+        it = q.iterator();
+        it.next();
+        it.remove();
+        assertTrue(q.isEmpty());
+    }
+}
@@ -1,8 +1,14 @@
 package queue;
 
+import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 /**
  * Created by VitaliiRiabtsev on 11/16/2016.
  */
@@ -64,4 +70,350 @@ public class MostRecentlyInsertedQueueTest extends JSR166TestCase {
         int expectSize = 0;
         assertEquals(expectSize, queue.size());
     }
-}
\ No newline at end of file
+
+    /**
+     * Age stats record evicted and consumed elements separately
+     */
+    public void testAgeStats() {
+        QueueAgeStats stats = new QueueAgeStats();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(2, stats);
+        assertSame(stats, queue.ageStats());
+        queue.offer(one);
+        queue.offer(two);
+        queue.offer(three);
+        assertEquals(two, queue.poll());
+        assertEquals(1, stats.evictedAge().snapshot().count());
+        assertEquals(1, stats.consumedAge().snapshot().count());
+        assertEquals(2, stats.consumedDepth().snapshot().max());
+    }
+
+    /**
+     * Capacity report recommends the smallest capacity that keeps consumed elements
+     */
+    public void testCapacityReportOverProvisioned() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(100, new QueueAgeStats());
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(i);
+            queue.offer(i);
+            queue.offer(i);
+            queue.poll();
+            queue.poll();
+            queue.poll();
+        }
+        CapacityReport report = queue.capacityReport(99);
+        assertFalse(report.isLowerBound());
+        assertEquals(3, report.recommendedCapacity());
+        assertEquals(0, report.evictedCount());
+        assertEquals(3000, report.consumedCount());
+    }
+
+    /**
+     * Capacity report is a lower bound when too many elements were evicted, adding a slot for
+     * every element evicted beyond the tolerated ones
+     */
+    public void testCapacityReportUnderProvisioned() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(2, new QueueAgeStats());
+        for (int i = 0; i < 100; i++) {
+            queue.offer(i);
+            queue.offer(i);
+            queue.offer(i);
+            queue.poll();
+            queue.poll();
+        }
+        CapacityReport report = queue.capacityReport(99);
+        assertTrue(report.isLowerBound());
+        assertEquals(100, report.evictedCount());
+        assertEquals(2 + 297 - 200, report.recommendedCapacity());
+    }
+
+    /**
+     * A queue too small for a burst gets the capacity that would have absorbed the burst,
+     * and its eviction rate
+     */
+    public void testCapacityReportBurst() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(10, new QueueAgeStats(), clock);
+        for (int i = 0; i < 1000; i++) {
+            clock.advance(1, MILLISECONDS);
+            queue.offer(i);
+            queue.poll();
+        }
+        for (int i = 0; i < 30; i++) {
+            clock.advance(1, MILLISECONDS);
+            queue.offer(i);
+        }
+        while (queue.poll() != null) {
+        }
+        CapacityReport report = queue.capacityReport(99);
+        assertTrue(report.isLowerBound());
+        assertEquals(20, report.evictedCount());
+        assertEquals(1010, report.consumedCount());
+        // 1020 of 1030 elements must be kept, 10 more than were
+        assertEquals(20, report.recommendedCapacity());
+        // one insertion per millisecond, each evicting an element 10 ms old
+        assertEquals(1000.0, report.evictionRate(), 1.0);
+
+        MostRecentlyInsertedQueue<Integer> sized = new MostRecentlyInsertedQueue<>(20, new QueueAgeStats(), clock);
+        for (int i = 0; i < 1000; i++) {
+            sized.offer(i);
+            sized.poll();
+        }
+        for (int i = 0; i < 30; i++) {
+            sized.offer(i);
+        }
+        assertEquals(10, sized.ageStats().evictedAge().snapshot().count());
+    }
+
+    /**
+     * Capacity report requires age stats
+     */
+    public void testCapacityReportWithoutStats() {
+        try {
+            new MostRecentlyInsertedQueue(1).capacityReport(99);
+            shouldThrow();
+        } catch (IllegalStateException success) {
+        }
+    }
+
+    /**
+     * Elements older than maxAge are expired on offer, poll, peek, size and iteration
+     */
+    public void testMaxAge() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(10, 30, SECONDS, clock);
+        queue.offer(one);
+        clock.advance(20, SECONDS);
+        queue.offer(two);
+        clock.advance(10, SECONDS);
+        assertEquals(2, queue.size());
+        assertEquals(one, queue.peek());
+
+        clock.advance(1, SECONDS);
+        assertEquals(two, queue.peek());
+        assertEquals(1, queue.size());
+        Iterator<Integer> iterator = queue.iterator();
+        assertSame(two, iterator.next());
+        assertFalse(iterator.hasNext());
+
+        clock.advance(20, SECONDS);
+        queue.offer(three);
+        assertEquals(1, queue.size());
+        assertEquals(three, queue.poll());
+        clock.advance(31, SECONDS);
+        queue.offer(four);
+        clock.advance(31, SECONDS);
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Capacity stays a hard upper bound in sliding-window mode
+     */
+    public void testMaxAgeKeepsCapacity() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(2, 30, SECONDS, clock);
+        queue.offer(one);
+        queue.offer(two);
+        queue.offer(three);
+        assertEquals(2, queue.size());
+        assertEquals(two, queue.poll());
+    }
+
+    /**
+     * Expired elements are recorded as evicted
+     */
+    public void testMaxAgeRecordsEvictedAge() {
+        ManualQueueClock clock = new ManualQueueClock();
+        QueueAgeStats stats = new QueueAgeStats();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(2, 30, SECONDS, clock, stats);
+        queue.offer(one);
+        clock.advance(40, SECONDS);
+        assertNull(queue.poll());
+        assertEquals(1, stats.evictedAge().snapshot().count());
+        assertEquals(SECONDS.toNanos(40), stats.evictedAge().snapshot().max());
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException if maxAge is nonpositive
+     */
+    public void testMaxAgeConstructor() {
+        try {
+            new MostRecentlyInsertedQueue(1, 0, SECONDS);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {
+        }
+    }
+
+    /**
+     * In dedupe mode re-inserting a queued element moves it to the tail
+     */
+    public void testDedupeMovesToTail() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(3, true);
+        queue.offer(one);
+        queue.offer(two);
+        queue.offer(three);
+        queue.offer(one);
+        assertEquals(3, queue.size());
+        queue.offer(four);
+        assertFalse(queue.contains(two));
+        assertTrue(queue.contains(one));
+        Iterator<Integer> it = queue.iterator();
+        assertEquals(three, it.next());
+        assertEquals(one, it.next());
+        assertEquals(four, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * In dedupe mode contains and remove(Object) stay consistent with offer, poll and eviction
+     */
+    public void testDedupeContainsAndRemove() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE, true);
+        for (int i = 0; i < SIZE * 3; i++) {
+            queue.offer(i % (SIZE + 2));
+        }
+        assertEquals(SIZE, queue.size());
+        assertFalse(queue.remove(99));
+        assertTrue(queue.remove(queue.peek()));
+        Integer head = queue.poll();
+        assertFalse(queue.contains(head));
+        Integer last = null;
+        for (Integer element : queue) {
+            assertTrue(queue.contains(element));
+            last = element;
+        }
+        assertTrue(queue.remove(last));
+        assertFalse(queue.contains(last));
+        assertEquals(SIZE - 3, queue.size());
+        queue.offer(last);
+        assertTrue(queue.contains(last));
+        assertFalse(queue.contains(null));
+    }
+
+    /**
+     * An iterator positioned on a node that is moved to the tail continues with the next element
+     */
+    public void testDedupeIteratorWeaklyConsistent() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE, true);
+        queue.offer(one);
+        queue.offer(two);
+        queue.offer(three);
+        Iterator<Integer> it = queue.iterator();
+        assertEquals(one, it.next());
+        queue.offer(two);
+        it.remove();
+        assertEquals(two, it.next());
+        assertEquals(three, it.next());
+        assertEquals(two, it.next());
+        assertFalse(it.hasNext());
+        assertFalse(queue.contains(one));
+        assertEquals(2, queue.size());
+    }
+
+    /**
+     * offerIfAbsent stays exact when an element is queued several times before eviction
+     */
+    public void testOfferIfAbsentWithDuplicates() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(3);
+        queue.offer(one);
+        queue.offer(two);
+        queue.offer(one);
+        assertFalse(queue.offerIfAbsent(two));
+        assertFalse(queue.offerIfAbsent(one));
+        assertTrue(queue.offerIfAbsent(three));
+        assertTrue(queue.contains(two));
+        // the older copy of one was evicted, the newer one is still queued
+        assertFalse(queue.offerIfAbsent(one));
+        queue.offer(four);
+        queue.offer(four);
+        assertFalse(queue.contains(one));
+        assertTrue(queue.offerIfAbsent(one));
+        assertEquals(four, queue.poll());
+        Iterator<Integer> it = queue.iterator();
+        assertEquals(four, it.next());
+        it.remove();
+        assertFalse(queue.contains(four));
+        assertTrue(queue.offerIfAbsent(four));
+    }
+
+    /**
+     * offerIfAbsent ignores expired elements
+     */
+    public void testOfferIfAbsentMaxAge() {
+        ManualQueueClock clock = new ManualQueueClock();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE, 30, SECONDS, clock);
+        assertTrue(queue.offerIfAbsent(one));
+        assertFalse(queue.offerIfAbsent(one));
+        clock.advance(40, SECONDS);
+        assertTrue(queue.offerIfAbsent(one));
+        assertEquals(1, queue.size());
+    }
+
+    /**
+     * offerIfAbsent in dedupe mode uses the dedupe index
+     */
+    public void testOfferIfAbsentDedupe() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE, true);
+        assertTrue(queue.offerIfAbsent(one));
+        assertTrue(queue.offerIfAbsent(two));
+        assertFalse(queue.offerIfAbsent(one));
+        assertEquals(one, queue.peek());
+    }
+
+    /**
+     * setCapacity grows the bound in place and shrinks by dropping the oldest elements
+     */
+    public void testSetCapacity() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            queue.offer(i);
+        }
+        queue.setCapacity(2 * SIZE);
+        assertEquals(2 * SIZE, queue.capacity());
+        for (int i = SIZE; i < 3 * SIZE; i++) {
+            queue.offer(i);
+        }
+        assertEquals(2 * SIZE, queue.size());
+        assertEquals((Integer) SIZE, queue.peek());
+        queue.setCapacity(3);
+        assertEquals(Arrays.asList(3 * SIZE - 3, 3 * SIZE - 2, 3 * SIZE - 1), new ArrayList<>(queue));
+        queue.offer(-1);
+        assertEquals(3, queue.size());
+        try {
+            queue.setCapacity(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * Elements dropped by a shrinking setCapacity are recorded as evicted
+     */
+    public void testSetCapacityRecordsEvictedAge() {
+        QueueAgeStats stats = new QueueAgeStats();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE, stats);
+        for (int i = 0; i < SIZE; i++) {
+            queue.offer(i);
+        }
+        queue.setCapacity(3);
+        assertEquals(SIZE - 3, stats.evictedAge().snapshot().count());
+        assertEquals(SIZE - 3, queue.capacityReport(99).evictedCount());
+    }
+
+    /**
+     * setCapacity keeps the fraction applied under memory pressure
+     */
+    public void testSetCapacityUnderPressure() {
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE);
+        queue.scaleCapacity(0.5);
+        queue.setCapacity(8);
+        for (int i = 0; i < SIZE; i++) {
+            queue.offer(i);
+        }
+        assertEquals(4, queue.size());
+        queue.scaleCapacity(1);
+        for (int i = 0; i < SIZE; i++) {
+            queue.offer(i);
+        }
+        assertEquals(8, queue.size());
+    }
+}
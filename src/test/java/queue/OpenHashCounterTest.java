@@ -0,0 +1,39 @@
+package queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpenHashCounterTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(OpenHashCounterTest.class);
+    }
+
+    /**
+     * Random increments and decrements agree with a HashMap of counts
+     */
+    public void testAgreesWithHashMap() {
+        OpenHashCounter counter = new OpenHashCounter();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            Integer key = random.nextInt(300) * 128;
+            if (random.nextInt(3) != 0) {
+                counter.increment(key);
+                expected.merge(key, 1, Integer::sum);
+            } else {
+                counter.decrement(key);
+                expected.computeIfPresent(key, (k, n) -> n == 1 ? null : n - 1);
+            }
+            assertEquals(expected.size(), counter.size());
+        }
+        for (int key = 0; key < 300 * 128; key += 128) {
+            assertEquals(expected.getOrDefault(key, 0).intValue(), counter.count(key));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpenHashIndexTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(OpenHashIndexTest.class);
+    }
+
+    /**
+     * Random puts and removes agree with HashMap, across resizes and backward shifts
+     */
+    public void testAgreesWithHashMap() {
+        OpenHashIndex<Integer, Integer> index = new OpenHashIndex<>(false);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // a small key range keeps long probe runs and collisions
+            Integer key = random.nextInt(512) * 64;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), index.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), index.remove(key));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (int key = 0; key < 512 * 64; key += 64) {
+            assertEquals(expected.get(key), index.get(key));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(0));
+    }
+
+    /**
+     * An identity index tells equal keys apart
+     */
+    public void testIdentity() {
+        OpenHashIndex<String, Integer> index = new OpenHashIndex<>(true);
+        String a = new String("key");
+        String b = new String("key");
+        index.put(a, 1);
+        assertNull(index.get(b));
+        index.put(b, 2);
+        assertEquals((Integer) 1, index.get(a));
+        assertEquals((Integer) 2, index.remove(b));
+        assertNull(index.remove(b));
+        assertEquals(1, index.size());
+    }
+}
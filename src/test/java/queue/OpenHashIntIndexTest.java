@@ -0,0 +1,43 @@
+package queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpenHashIntIndexTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(OpenHashIntIndexTest.class);
+    }
+
+    /**
+     * Random puts and removes agree with HashMap, across resizes and backward shifts
+     */
+    public void testAgreesWithHashMap() {
+        OpenHashIntIndex index = new OpenHashIntIndex();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 100_000; i++) {
+            // a small key range keeps long probe runs and collisions
+            Integer key = random.nextInt(512) * 64;
+            if (random.nextBoolean()) {
+                expected.put(key, i);
+                index.put(key, i);
+            } else {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? -1 : removed, index.remove(key));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (int key = 0; key < 512 * 64; key += 64) {
+            assertEquals(expected.getOrDefault(key, -1).intValue(), index.get(key));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.get(0));
+    }
+}
@@ -0,0 +1,182 @@
+package queue;
+
+import junit.framework.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class PriorityLaneBlockingQueueTest extends JSR166TestCase {
+
+    public static class Bounded extends BlockingQueueTest {
+        protected BlockingQueue emptyCollection() {
+            return new PriorityLaneBlockingQueue<Integer>(SIZE, 4, i -> i & 3);
+        }
+    }
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static Test suite() {
+        class Implementation implements CollectionImplementation {
+            public Class<?> klazz() {
+                return PriorityLaneBlockingQueue.class;
+            }
+
+            public Collection emptyCollection() {
+                return new PriorityLaneBlockingQueue<Integer>(Integer.MAX_VALUE, 4, i -> i & 3);
+            }
+
+            public Object makeElement(int i) {
+                return i;
+            }
+
+            public boolean isConcurrent() {
+                return true;
+            }
+
+            public boolean permitsNulls() {
+                return false;
+            }
+        }
+
+        return newTestSuite(PriorityLaneBlockingQueueTest.class,
+                new Bounded().testSuite(),
+                CollectionTest.testSuite(new Implementation()));
+    }
+
+    // lane is the element modulo 3
+    private static PriorityLaneBlockingQueue<Integer> queue(int capacity) {
+        return new PriorityLaneBlockingQueue<>(capacity, 3, i -> i % 3);
+    }
+
+    private static void assertContents(PriorityLaneBlockingQueue<Integer> q, Integer... expected) {
+        assertEquals(Arrays.asList(expected), new ArrayList<>(q));
+    }
+
+    /**
+     * Constructor rejects a non-positive capacity, a bad lane count and a null priority function
+     */
+    public void testConstructor() {
+        try {
+            new PriorityLaneBlockingQueue<Integer>(0, 3, i -> 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new PriorityLaneBlockingQueue<Integer>(SIZE, 0, i -> 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new PriorityLaneBlockingQueue<Integer>(SIZE, PriorityLaneBlockingQueue.MAX_LANES + 1, i -> 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new PriorityLaneBlockingQueue<Integer>(SIZE, 3, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        assertEquals(3, queue(SIZE).lanes());
+    }
+
+    /**
+     * An element mapped outside the lanes is rejected
+     */
+    public void testLaneOutOfRange() {
+        PriorityLaneBlockingQueue<Integer> q = new PriorityLaneBlockingQueue<>(SIZE, 2, i -> i);
+        try {
+            q.offer(2);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * A full queue evicts the oldest element of the lowest non-empty lane
+     */
+    public void testEvictsLowestLaneFirst() {
+        PriorityLaneBlockingQueue<Integer> q = queue(4);
+        q.offer(2);
+        q.offer(4);
+        q.offer(3);
+        q.offer(5);
+        q.offer(7);
+        assertContents(q, 2, 4, 5, 7);
+        q.offer(8);
+        assertContents(q, 2, 5, 7, 8);
+        q.offer(11);
+        assertContents(q, 2, 5, 8, 11);
+        q.offer(14);
+        assertContents(q, 5, 8, 11, 14);
+        assertEquals(4, q.evictionCount());
+        assertEquals(0, q.size(0));
+        assertEquals(0, q.size(1));
+        assertEquals(4, q.size(2));
+    }
+
+    /**
+     * poll, take and drainTo return elements in global insertion order
+     */
+    public void testRemovalInInsertionOrder() throws InterruptedException {
+        PriorityLaneBlockingQueue<Integer> q = queue(SIZE);
+        for (int i = SIZE - 1; i >= 0; i--) {
+            q.offer(i);
+        }
+        assertEquals((Integer) (SIZE - 1), q.peek());
+        assertEquals((Integer) (SIZE - 1), q.poll());
+        assertEquals((Integer) (SIZE - 2), q.take());
+        assertEquals((Integer) (SIZE - 3), q.poll(LONG_DELAY_MS, MILLISECONDS));
+        ArrayList<Integer> drained = new ArrayList<>();
+        assertEquals(SIZE - 3, q.drainTo(drained));
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals((Integer) (SIZE - 4 - i), drained.get(i));
+        }
+        for (int lane = 0; lane < q.lanes(); lane++) {
+            assertEquals(0, q.size(lane));
+        }
+    }
+
+    /**
+     * remove and iterator remove keep the lanes consistent
+     */
+    public void testRemoveFromMiddleOfLane() {
+        PriorityLaneBlockingQueue<Integer> q = queue(5);
+        for (int i = 0; i < 5; i++) {
+            q.offer(i * 3);
+        }
+        assertTrue(q.remove(6));
+        Iterator<Integer> it = q.iterator();
+        it.next();
+        it.next();
+        it.remove();
+        assertContents(q, 0, 9, 12);
+        assertEquals(3, q.size(0));
+        q.offer(1);
+        q.offer(2);
+        q.offer(15);
+        assertContents(q, 9, 12, 1, 2, 15);
+        assertEquals(1, q.evictionCount());
+    }
+
+    /**
+     * take blocks until an element is offered
+     */
+    public void testTakeWaitsForOffer() throws InterruptedException {
+        final PriorityLaneBlockingQueue<Integer> q = queue(SIZE);
+        final CountDownLatch taking = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                taking.countDown();
+                assertEquals(one, q.take());
+            }
+        });
+        await(taking);
+        waitForThreadToEnterWaitState(t);
+        q.put(one);
+        awaitTermination(t);
+    }
+}
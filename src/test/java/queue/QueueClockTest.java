@@ -0,0 +1,90 @@
+package queue;
+
+import java.util.concurrent.TimeUnit;
+
+public class QueueClockTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(QueueClockTest.class);
+    }
+
+    /**
+     * The system clock follows System.nanoTime
+     */
+    public void testSystemClock() {
+        long before = System.nanoTime();
+        long now = QueueClock.SYSTEM.nanoTime();
+        assertTrue(now - before >= 0);
+        assertTrue(System.nanoTime() - now >= 0);
+    }
+
+    /**
+     * The manual clock only moves when advanced or set
+     */
+    public void testManualClock() {
+        ManualQueueClock clock = new ManualQueueClock(5);
+        assertEquals(5, clock.nanoTime());
+        clock.advance(2, TimeUnit.MICROSECONDS);
+        assertEquals(2005, clock.nanoTime());
+        clock.set(1);
+        assertEquals(1, clock.nanoTime());
+    }
+
+    /**
+     * The cached clock advances in the background and lags real time by about its resolution
+     */
+    public void testCachedClock() throws InterruptedException {
+        CachedQueueClock clock = new CachedQueueClock(1, TimeUnit.MILLISECONDS);
+        try {
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(1), clock.resolutionNanos());
+            long first = clock.nanoTime();
+            long startTime = System.nanoTime();
+            while (clock.nanoTime() == first) {
+                if (millisElapsedSince(startTime) > LONG_DELAY_MS)
+                    fail("cached clock does not advance");
+                Thread.yield();
+            }
+            assertTrue(clock.nanoTime() - first > 0);
+            assertTrue(System.nanoTime() - clock.nanoTime() >= 0);
+        } finally {
+            clock.close();
+        }
+    }
+
+    /**
+     * Cached clock rejects a nonpositive resolution
+     */
+    public void testCachedClockResolution() {
+        try {
+            new CachedQueueClock(0, TimeUnit.MILLISECONDS);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {
+        }
+    }
+
+    /**
+     * Queues timestamp elements through the configured clock
+     */
+    public void testQueuesReadConfiguredClock() throws InterruptedException {
+        ManualQueueClock clock = new ManualQueueClock();
+        QueueAgeStats ageStats = new QueueAgeStats();
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(2, ageStats, clock);
+        queue.offer(one);
+        clock.advance(7, TimeUnit.MILLISECONDS);
+        queue.poll();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7), ageStats.consumedAge().snapshot().max());
+
+        QueueLatencyStats latencyStats = new QueueLatencyStats();
+        MostRecentlyInsertedBlockingQueue<Integer> q =
+                new MostRecentlyInsertedBlockingQueue<>(2, latencyStats, clock);
+        q.put(one);
+        clock.advance(3, TimeUnit.MILLISECONDS);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), q.oldestElementAgeNanos());
+        q.take();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), latencyStats.residency().snapshot().max());
+    }
+}
@@ -0,0 +1,247 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class QueueGroupTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(QueueGroupTest.class);
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException if the budget is not positive
+     */
+    public void testConstructor() {
+        try {
+            QueueGroup.ofElements(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            QueueGroup.ofWeight(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * Members whose floors do not fit in the budget are rejected
+     */
+    public void testFloorsMustFitBudget() {
+        QueueGroup group = QueueGroup.ofElements(10);
+        group.newQueue(6, 10);
+        try {
+            group.newQueue(5, 10);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        group.newQueue(4, 10);
+    }
+
+    /**
+     * A member whose floor exceeds its ceiling is rejected, as it could never be evicted
+     */
+    public void testFloorAboveCeiling() {
+        QueueGroup group = QueueGroup.ofElements(10);
+        try {
+            group.newQueue(5, 4);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        // the rejected floor was not charged to the budget
+        group.newQueue(10, 10);
+        QueueGroup weighted = QueueGroup.ofWeight(10);
+        try {
+            weighted.newQueue(5, 10, 4, e -> 1);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        weighted.newQueue(10L, 10, 10, e -> 1);
+    }
+
+    /**
+     * The group usage follows insertions and every kind of removal
+     */
+    public void testUsageFollowsQueues() throws InterruptedException {
+        QueueGroup group = QueueGroup.ofElements(100);
+        MostRecentlyInsertedBlockingQueue<Integer> q = group.newQueue(0, 10);
+        for (int i = 0; i < 15; i++) {
+            q.offer(i);
+        }
+        assertEquals(10, group.usage());
+        q.poll();
+        q.take();
+        q.remove(7);
+        assertEquals(7, group.usage());
+        q.drainTo(new ArrayList<Integer>(), 2);
+        assertEquals(5, group.usage());
+        q.clear();
+        assertEquals(0, group.usage());
+        assertEquals(0, group.evictionCount());
+    }
+
+    /**
+     * A group only accepts members charged in the unit of its budget
+     */
+    public void testMembersMatchUnit() {
+        QueueGroup elements = QueueGroup.ofElements(100);
+        assertFalse(elements.isWeighted());
+        try {
+            elements.newQueue(0L, 10, 100, e -> 1);
+            shouldThrow();
+        } catch (UnsupportedOperationException success) {}
+        QueueGroup weighted = QueueGroup.ofWeight(100);
+        assertTrue(weighted.isWeighted());
+        try {
+            weighted.newQueue(0, 10);
+            shouldThrow();
+        } catch (UnsupportedOperationException success) {}
+        assertEquals(0, elements.size());
+        assertEquals(0, weighted.size());
+    }
+
+    /**
+     * An unregistered member releases its floor and usage and is no longer evicted from
+     */
+    public void testUnregister() {
+        QueueGroup group = QueueGroup.ofElements(10);
+        MostRecentlyInsertedBlockingQueue<Integer> a = group.newQueue(6, 10);
+        MostRecentlyInsertedBlockingQueue<Integer> b = group.newQueue(0, 10);
+        for (int i = 0; i < 8; i++) {
+            a.offer(i);
+        }
+        assertEquals(8, group.usage());
+        assertTrue(group.unregister(a));
+        assertFalse(group.unregister(a));
+        assertEquals(1, group.size());
+        assertEquals(0, group.usage());
+        // the released floor fits again
+        group.newQueue(10, 10);
+        for (int i = 10; i < 30; i++) {
+            b.offer(i);
+        }
+        // the former member keeps its elements, the group only charges and evicts its members
+        assertEquals(8, a.size());
+        assertEquals(10, b.size());
+        a.offer(8);
+        a.poll();
+        assertEquals(8, a.size());
+        assertEquals(10, group.usage());
+        assertEquals(0, group.evictionCount());
+    }
+
+    /**
+     * Over budget, the group evicts the oldest elements across its members
+     */
+    public void testEvictsOldestAcrossQueues() {
+        QueueGroup group = QueueGroup.ofElements(10);
+        MostRecentlyInsertedBlockingQueue<Integer> a = group.newQueue(0, 10);
+        MostRecentlyInsertedBlockingQueue<Integer> b = group.newQueue(0, 10);
+        for (int i = 0; i < 6; i++) {
+            a.offer(i);
+        }
+        for (int i = 10; i < 16; i++) {
+            b.offer(i);
+        }
+        assertEquals(10, group.usage());
+        assertEquals(2, group.evictionCount());
+        assertEquals(Arrays.asList(2, 3, 4, 5), new ArrayList<>(a));
+        assertEquals(6, b.size());
+        // an idle member keeps losing its oldest elements to a busy one
+        for (int i = 20; i < 24; i++) {
+            b.offer(i);
+        }
+        assertEquals(0, a.size());
+        assertEquals(10, b.size());
+        assertEquals(10, group.usage());
+    }
+
+    /**
+     * Cross-queue eviction never takes a member below its floor
+     */
+    public void testFloorIsKept() {
+        QueueGroup group = QueueGroup.ofElements(10);
+        MostRecentlyInsertedBlockingQueue<Integer> a = group.newQueue(4, 10);
+        MostRecentlyInsertedBlockingQueue<Integer> b = group.newQueue(0, 10);
+        for (int i = 0; i < 6; i++) {
+            a.offer(i);
+        }
+        for (int i = 10; i < 30; i++) {
+            b.offer(i);
+        }
+        assertEquals(Arrays.asList(2, 3, 4, 5), new ArrayList<>(a));
+        assertEquals(6, b.size());
+        assertEquals(Integer.valueOf(24), b.peek());
+        assertEquals(10, group.usage());
+    }
+
+    /**
+     * The ceiling of a member is its own capacity, regardless of the budget
+     */
+    public void testCeiling() {
+        QueueGroup group = QueueGroup.ofElements(100);
+        MostRecentlyInsertedBlockingQueue<Integer> q = group.newQueue(0, 3);
+        for (int i = 0; i < 10; i++) {
+            q.offer(i);
+        }
+        assertEquals(Arrays.asList(7, 8, 9), new ArrayList<>(q));
+        assertEquals(7, q.evictionCount());
+        assertEquals(0, group.evictionCount());
+    }
+
+    /**
+     * A weighted group budgets the weights of the elements
+     */
+    public void testWeightedBudget() {
+        QueueGroup group = QueueGroup.ofWeight(100);
+        MostRecentlyInsertedBlockingQueue<String> a = group.newQueue(0L, 100, 100, String::length);
+        MostRecentlyInsertedBlockingQueue<String> b = group.newQueue(0L, 100, 100, String::length);
+        a.offer(new String(new char[40]));
+        a.offer(new String(new char[30]));
+        b.offer(new String(new char[20]));
+        assertEquals(90, group.usage());
+        b.offer(new String(new char[25]));
+        assertEquals(75, group.usage());
+        assertEquals(1, a.size());
+        assertEquals(30, a.weight());
+        assertEquals(2, b.size());
+    }
+
+    /**
+     * Concurrent producers on different members leave the group within its budget
+     */
+    public void testConcurrentProducers() throws InterruptedException {
+        final int budget = 100;
+        final QueueGroup group = QueueGroup.ofElements(budget);
+        final int producers = 4;
+        final List<MostRecentlyInsertedBlockingQueue<Integer>> queues = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            queues.add(group.<Integer>newQueue(0, 60));
+        }
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final MostRecentlyInsertedBlockingQueue<Integer> q = queues.get(p);
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 0; i < 20_000; i++) {
+                        q.offer(i);
+                        if ((i & 7) == 0) {
+                            q.poll();
+                        }
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        int total = 0;
+        for (MostRecentlyInsertedBlockingQueue<Integer> q : queues) {
+            total += q.size();
+        }
+        assertEquals(total, group.usage());
+        assertTrue(total <= budget);
+        assertTrue(group.evictionCount() > 0);
+    }
+}
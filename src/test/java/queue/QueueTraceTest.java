@@ -0,0 +1,236 @@
+package queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public class QueueTraceTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(QueueTraceTest.class);
+    }
+
+    /**
+     * Variable-length longs survive a write/read round trip
+     */
+    public void testVarLongRoundTrip() throws IOException {
+        long[] values = {0, 1, -1, 63, 64, -65, 300, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            QueueTrace.writeVarLong(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, QueueTrace.readVarLong(in));
+        }
+    }
+
+    /**
+     * Recorded operations are read back with their elements and results
+     */
+    public void testRecordAndRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QueueTrace.Writer writer = new QueueTrace.Writer(bytes);
+        TraceRecordingBlockingQueue<Integer> q = new TraceRecordingBlockingQueue<>(
+                new MostRecentlyInsertedBlockingQueue<Integer>(2), writer);
+        q.offer(one);
+        q.put(two);
+        q.offer(three, LONG_DELAY_MS, MILLISECONDS);
+        assertEquals(two, q.peek());
+        assertEquals(two, q.take());
+        assertEquals(three, q.poll(LONG_DELAY_MS, MILLISECONDS));
+        assertNull(q.poll());
+        q.offer(four);
+        assertEquals(1, q.drainTo(new ArrayList<Integer>()));
+        writer.close();
+
+        List<QueueTrace.Event> events = QueueTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(9, events.size());
+        assertEquals(QueueTrace.Op.OFFER, events.get(0).op());
+        assertEquals(1, events.get(0).element());
+        assertTrue(events.get(0).hasResult());
+        assertEquals(QueueTrace.Op.PUT, events.get(1).op());
+        assertEquals(QueueTrace.Op.OFFER_TIMED, events.get(2).op());
+        assertEquals(MILLISECONDS.toNanos(LONG_DELAY_MS), events.get(2).timeoutNanos());
+        assertEquals(QueueTrace.Op.PEEK, events.get(3).op());
+        assertEquals(2, events.get(3).result());
+        assertEquals(QueueTrace.Op.TAKE, events.get(4).op());
+        assertEquals(QueueTrace.Op.POLL_TIMED, events.get(5).op());
+        assertEquals(3, events.get(5).result());
+        assertEquals(QueueTrace.Op.POLL, events.get(6).op());
+        assertFalse(events.get(6).hasResult());
+        assertEquals(QueueTrace.Op.DRAIN, events.get(8).op());
+        assertEquals(1, events.get(8).result());
+        long threadId = Thread.currentThread().getId();
+        long previousTime = 0;
+        for (QueueTrace.Event event : events) {
+            assertEquals(threadId, event.threadId());
+            assertTrue(event.timeNanos() >= previousTime);
+            previousTime = event.timeNanos();
+        }
+    }
+
+    /**
+     * Reading a stream that is not a trace fails
+     */
+    public void testReadRejectsForeignData() {
+        try {
+            QueueTrace.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}));
+            shouldThrow();
+        } catch (IOException success) {
+        }
+    }
+
+    /**
+     * A single-threaded trace replays without divergence on every implementation
+     */
+    public void testReplayWithoutDivergence() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QueueTrace.Writer writer = new QueueTrace.Writer(bytes);
+        Queue<Long> q = new TraceRecordingQueue<>(new MostRecentlyInsertedQueue<Long>(4), writer,
+                element -> element);
+        for (long i = 0; i < 100; i++) {
+            q.offer(i);
+            if (i % 3 == 0) {
+                q.poll();
+            }
+        }
+        writer.close();
+        List<QueueTrace.Event> events = QueueTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        for (Map.Entry<String, IntFunction<Queue<Long>>> implementation
+                : TraceReplayer.implementations().entrySet()) {
+            if (implementation.getKey().equals("MostRecentlyInsertedMailbox")) {
+                // holds a single element, see testReplayBlockingOperations
+                continue;
+            }
+            TraceReplayer.Result result = TraceReplayer.replay(implementation.getKey(),
+                    implementation.getValue().apply(4), events, 0, 0);
+            assertEquals(implementation.getKey(), 0, result.divergences);
+            assertEquals(events.size(), result.operations);
+            assertEquals(100 - 34 - q.size(), result.evictions);
+        }
+    }
+
+    /**
+     * Replaying with a smaller capacity reports divergent removals
+     */
+    public void testReplayReportsDivergence() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QueueTrace.Writer writer = new QueueTrace.Writer(bytes);
+        Queue<Long> q = new TraceRecordingQueue<>(new MostRecentlyInsertedQueue<Long>(4), writer,
+                element -> element);
+        for (long i = 0; i < 4; i++) {
+            q.offer(i);
+        }
+        q.poll();
+        writer.close();
+        List<QueueTrace.Event> events = QueueTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+        TraceReplayer.Result result = TraceReplayer.replay("small",
+                new MostRecentlyInsertedQueue<Long>(2), events, 0, 0);
+        assertEquals(1, result.divergences);
+        assertEquals(2, result.evictions);
+    }
+
+    /**
+     * Blocking operations and drains are replayed as themselves, also on the mailbox
+     */
+    public void testReplayBlockingOperations() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QueueTrace.Writer writer = new QueueTrace.Writer(bytes);
+        TraceRecordingBlockingQueue<Long> q = new TraceRecordingBlockingQueue<>(
+                new MostRecentlyInsertedBlockingQueue<Long>(1), writer, element -> element);
+        for (long i = 0; i < 10; i++) {
+            q.put(i);
+            assertEquals(Long.valueOf(i), q.take());
+            q.offer(i, LONG_DELAY_MS, MILLISECONDS);
+            assertEquals(1, q.drainTo(new ArrayList<Long>(), 1));
+        }
+        writer.close();
+        List<QueueTrace.Event> events = QueueTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(40, events.size());
+
+        final List<String> calls = new ArrayList<>();
+        BlockingQueue<Long> spy = new MostRecentlyInsertedMailbox<Long>() {
+            @Override
+            public void put(Long element) {
+                calls.add("put");
+                super.put(element);
+            }
+
+            @Override
+            public boolean offer(Long element, long timeout, TimeUnit unit) {
+                calls.add("offer timed");
+                return super.offer(element, timeout, unit);
+            }
+
+            @Override
+            public int drainTo(Collection<? super Long> collection, int maxElements) {
+                calls.add("drainTo");
+                return super.drainTo(collection, maxElements);
+            }
+        };
+        TraceReplayer.Result result = TraceReplayer.replay("mailbox", spy, events, 0, LONG_DELAY_MS);
+        assertEquals(0, result.divergences);
+        assertEquals(0, result.evictions);
+        assertEquals(30, calls.size());
+        assertEquals(Arrays.asList("put", "offer timed", "drainTo"), calls.subList(0, 3));
+    }
+
+    /**
+     * Records of concurrent threads are read back in time order with their own threads
+     */
+    public void testConcurrentRecording() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final QueueTrace.Writer writer = new QueueTrace.Writer(bytes);
+        final Queue<Long> q = new TraceRecordingQueue<>(new ConcurrentMostRecentlyInsertedQueue<Long>(16),
+                writer, element -> element);
+        final int threads = 4;
+        final int offers = 5000;
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long base = t * offers;
+            recorders[t] = newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (long i = 0; i < offers; i++) {
+                        q.offer(base + i);
+                    }
+                }
+            });
+        }
+        for (Thread recorder : recorders) {
+            awaitTermination(recorder);
+        }
+        writer.close();
+        List<QueueTrace.Event> events = QueueTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(threads * offers, events.size());
+        Map<Long, Long> lastElements = new HashMap<>();
+        long previousTime = 0;
+        for (QueueTrace.Event event : events) {
+            assertTrue(event.timeNanos() >= previousTime);
+            previousTime = event.timeNanos();
+            Long last = lastElements.put(event.threadId(), event.element());
+            assertTrue(last == null || event.element() == last + 1);
+        }
+        assertEquals(threads, lastElements.size());
+    }
+}
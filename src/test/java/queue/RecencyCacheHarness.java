@@ -0,0 +1,189 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Throughput comparison of {@link RecencyCache} against the pairing it replaces: a
+ * {@code ConcurrentHashMap} for lookups next to a {@link ConcurrentMostRecentlyInsertedQueue}
+ * for eviction order, kept in sync by a lock around every write.
+ * <p>
+ * Each thread runs a closed loop of gets and puts over a random key range for the configured
+ * time; the result is the total operations per second.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes queue.RecencyCacheHarness
+ * [--cache=all|<name>] [--capacity=1024] [--keys=4096] [--threads=4] [--reads=90]
+ * [--warmup=2] [--duration=5]}, where reads is the percentage of gets and warmup/duration are
+ * in seconds.
+ */
+public class RecencyCacheHarness {
+
+    interface Cache {
+        Integer get(Integer key);
+
+        void put(Integer key, Integer value);
+    }
+
+    static final class Settings {
+        String cache = "all";
+        int capacity = 1024;
+        int keys = 4096;
+        int threads = 4;
+        int reads = 90;
+        long warmupSeconds = 2;
+        long durationSeconds = 5;
+
+        static Settings parse(String[] args) {
+            Settings settings = new Settings();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("unexpected argument: " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "cache": settings.cache = value; break;
+                    case "capacity": settings.capacity = Integer.parseInt(value); break;
+                    case "keys": settings.keys = Integer.parseInt(value); break;
+                    case "threads": settings.threads = Integer.parseInt(value); break;
+                    case "reads": settings.reads = Integer.parseInt(value); break;
+                    case "warmup": settings.warmupSeconds = Long.parseLong(value); break;
+                    case "duration": settings.durationSeconds = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("unknown option: " + name);
+                }
+            }
+            if (settings.capacity <= 0 || settings.keys <= 0 || settings.threads <= 0
+                    || settings.reads < 0 || settings.reads > 100
+                    || settings.warmupSeconds < 0 || settings.durationSeconds <= 0) {
+                throw new IllegalArgumentException("options out of range");
+            }
+            return settings;
+        }
+
+        @Override
+        public String toString() {
+            return "capacity=" + capacity + " keys=" + keys + " threads=" + threads + " reads=" + reads
+                    + "% warmup=" + warmupSeconds + "s duration=" + durationSeconds + "s";
+        }
+    }
+
+    /** A map for lookups and a queue for eviction order, updated together under one lock. */
+    static final class MapAndQueue implements Cache {
+        private final int capacity;
+        private final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+        private final ConcurrentMostRecentlyInsertedQueue<Integer> queue;
+
+        MapAndQueue(int capacity) {
+            this.capacity = capacity;
+            this.queue = new ConcurrentMostRecentlyInsertedQueue<>(capacity);
+        }
+
+        public Integer get(Integer key) {
+            return map.get(key);
+        }
+
+        public synchronized void put(Integer key, Integer value) {
+            if (map.put(key, value) != null) {
+                // moving the key to the newest position is a linear scan of the queue
+                queue.remove(key);
+            } else if (queue.size() == capacity) {
+                map.remove(queue.poll());
+            }
+            queue.offer(key);
+        }
+    }
+
+    static Map<String, IntFunction<Cache>> implementations() {
+        Map<String, IntFunction<Cache>> implementations = new LinkedHashMap<>();
+        implementations.put("RecencyCache", capacity -> {
+            final RecencyCache<Integer, Integer> cache = new RecencyCache<>(capacity);
+            return new Cache() {
+                public Integer get(Integer key) {
+                    return cache.get(key);
+                }
+
+                public void put(Integer key, Integer value) {
+                    cache.put(key, value);
+                }
+            };
+        });
+        implementations.put("MapAndQueue", MapAndQueue::new);
+        return implementations;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Settings settings = Settings.parse(args);
+        Map<String, IntFunction<Cache>> implementations = implementations();
+        List<String> names = "all".equals(settings.cache)
+                ? new ArrayList<>(implementations.keySet())
+                : Arrays.asList(settings.cache.split(","));
+        System.out.println("# " + settings);
+        for (String name : names) {
+            IntFunction<Cache> factory = implementations.get(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("unknown cache: " + name + ", known: " + implementations.keySet());
+            }
+            if (settings.warmupSeconds > 0) {
+                run(factory.apply(settings.capacity), settings, settings.warmupSeconds);
+            }
+            double throughput = run(factory.apply(settings.capacity), settings, settings.durationSeconds);
+            System.out.println(String.format("%-20s throughput=%.0f ops/s", name, throughput));
+        }
+    }
+
+    static double run(final Cache cache, final Settings settings, long seconds) throws InterruptedException {
+        for (int key = 0; key < settings.capacity; key++) {
+            cache.put(key, key);
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(settings.threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < settings.threads; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    Integer key = random.nextInt(settings.keys);
+                    if (random.nextInt(100) < settings.reads) {
+                        cache.get(key);
+                    } else {
+                        cache.put(key, key);
+                    }
+                    count++;
+                }
+                operations.addAndGet(count);
+            }, "cache-worker-" + t));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return operations.get() / ((System.nanoTime() - start) / 1e9);
+    }
+}
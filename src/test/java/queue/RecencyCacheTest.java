@@ -0,0 +1,209 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RecencyCacheTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(RecencyCacheTest.class);
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException if capacity or stripes is not positive
+     */
+    public void testConstructor() {
+        try {
+            new RecencyCache<Integer, Integer>(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new RecencyCache<Integer, Integer>(1, 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * put throws NullPointerException for a null key or value
+     */
+    public void testPutNull() {
+        RecencyCache<Integer, Integer> cache = new RecencyCache<>(SIZE);
+        try {
+            cache.put(null, one);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            cache.put(one, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * A full cache evicts the oldest entries first, like MostRecentlyInsertedQueue
+     */
+    public void testEvictsInInsertionOrder() {
+        RecencyCache<Integer, Integer> cache = new RecencyCache<>(SIZE, 4);
+        MostRecentlyInsertedQueue<Integer> queue = new MostRecentlyInsertedQueue<>(SIZE);
+        for (int i = 0; i < 3 * SIZE; i++) {
+            cache.put(i, -i);
+            queue.offer(i);
+        }
+        assertEquals(SIZE, cache.size());
+        assertEquals(2 * SIZE, cache.evictionCount());
+        for (int i = 0; i < 3 * SIZE; i++) {
+            assertEquals(queue.contains(i), cache.containsKey(i));
+            assertEquals(queue.contains(i) ? (Integer) (-i) : null, cache.get(i));
+        }
+    }
+
+    /**
+     * Putting a cached key replaces its value and makes it the newest entry
+     */
+    public void testPutExistingKeyMovesToNewest() {
+        RecencyCache<Integer, String> cache = new RecencyCache<>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals("a", cache.put(1, "A"));
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.evictionCount());
+        cache.put(4, "d");
+        assertNull(cache.get(2));
+        assertEquals("A", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals("d", cache.get(4));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    /**
+     * remove drops the entry and frees its slot without an eviction
+     */
+    public void testRemove() {
+        RecencyCache<Integer, Integer> cache = new RecencyCache<>(2);
+        cache.put(1, 10);
+        cache.put(2, 20);
+        assertEquals((Integer) 10, cache.remove(1));
+        assertNull(cache.remove(1));
+        assertEquals(1, cache.size());
+        cache.put(3, 30);
+        assertEquals(0, cache.evictionCount());
+        assertEquals((Integer) 20, cache.get(2));
+        assertEquals((Integer) 30, cache.get(3));
+        cache.put(4, 40);
+        assertNull(cache.get(2));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    /**
+     * clear empties the cache and it can be filled again
+     */
+    public void testClear() {
+        RecencyCache<Integer, Integer> cache = new RecencyCache<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            cache.put(i, i);
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(0));
+        for (int i = 0; i < SIZE; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(SIZE, cache.size());
+        assertEquals(0, cache.evictionCount());
+    }
+
+    /**
+     * Concurrent writers never leave more than capacity entries, and an evicted key is gone
+     * from the index by the time its eviction is counted
+     */
+    public void testConcurrentPutsKeepIndexConsistent() throws InterruptedException {
+        final int capacity = 64;
+        final int threads = 4;
+        final int perThread = 20_000;
+        final RecencyCache<Integer, Integer> cache = new RecencyCache<>(capacity, 8);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicBoolean oversized = new AtomicBoolean();
+        Thread reader = newStartedThread(new CheckedRunnable() {
+            public void realRun() {
+                while (!stop.get()) {
+                    if (cache.size() > capacity) {
+                        oversized.set(true);
+                    }
+                    cache.get(0);
+                }
+            }
+        });
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            writers.add(newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 0; i < perThread; i++) {
+                        // overlapping keys exercise replacement as well as eviction
+                        cache.put((base + i) % (capacity * 8), i);
+                    }
+                    done.countDown();
+                }
+            }));
+        }
+        await(done);
+        stop.set(true);
+        awaitTermination(reader);
+        for (Thread writer : writers) {
+            awaitTermination(writer);
+        }
+        assertFalse(oversized.get());
+        assertEquals(capacity, cache.size());
+        int cached = 0;
+        for (int key = 0; key < capacity * 8; key++) {
+            if (cache.containsKey(key)) {
+                cached++;
+            }
+        }
+        assertEquals(capacity, cached);
+    }
+
+    /**
+     * Concurrent puts and removes leave the counted entries equal to the indexed ones once
+     * the writers are done
+     */
+    public void testConcurrentPutsAndRemoves() throws InterruptedException {
+        final int capacity = 32;
+        final int keys = capacity * 4;
+        final RecencyCache<Integer, Integer> cache = new RecencyCache<>(capacity, 4);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            writers.add(newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = (i * 31 + seed * 7) % keys;
+                        if ((i + seed) % 3 == 0) {
+                            cache.remove(key);
+                        } else {
+                            cache.put(key, i);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            awaitTermination(writer);
+        }
+        int cached = 0;
+        for (int key = 0; key < keys; key++) {
+            if (cache.containsKey(key)) {
+                cached++;
+            }
+        }
+        assertTrue(cache.size() <= capacity);
+        assertEquals(cached, cache.size());
+    }
+}
@@ -0,0 +1,149 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RecentElementsRegistryTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(RecentElementsRegistryTest.class);
+    }
+
+    private static <K> List<Integer> recent(RecentElementsRegistry<K, Integer> registry, K key) {
+        List<Integer> elements = new ArrayList<>();
+        assertEquals(registry.size(key), registry.recent(key, elements::add));
+        return elements;
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException for an invalid per-key capacity or segment count
+     */
+    public void testConstructor() {
+        try {
+            new RecentElementsRegistry<Integer, Integer>(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new RecentElementsRegistry<Integer, Integer>(1 << 16);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new RecentElementsRegistry<Integer, Integer>(1, 0, QueueClock.SYSTEM);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * offer throws NullPointerException for a null key or element
+     */
+    public void testOfferNull() {
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(SIZE);
+        try {
+            registry.offer(null, one);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+        try {
+            registry.offer(one, null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * Each key keeps the same elements, in the same order, as its own MostRecentlyInsertedQueue
+     */
+    public void testMatchesQueuePerKey() {
+        final int keys = 1000;
+        final int perKey = 5;
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(perKey, 4, QueueClock.SYSTEM);
+        List<MostRecentlyInsertedQueue<Integer>> queues = new ArrayList<>();
+        for (int key = 0; key < keys; key++) {
+            queues.add(new MostRecentlyInsertedQueue<Integer>(perKey));
+        }
+        for (int i = 0; i < keys * 12; i++) {
+            // uneven key frequencies leave some rings partly filled
+            int key = (i * 7919) % keys % (1 + i % keys);
+            registry.offer(key, i);
+            queues.get(key).offer(i);
+        }
+        int nonEmpty = 0;
+        for (int key = 0; key < keys; key++) {
+            assertEquals(new ArrayList<>(queues.get(key)), recent(registry, key));
+            if (!queues.get(key).isEmpty()) {
+                nonEmpty++;
+            }
+        }
+        assertEquals(nonEmpty, registry.keyCount());
+    }
+
+    /**
+     * An unknown key has no recent elements
+     */
+    public void testUnknownKey() {
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(SIZE);
+        assertEquals(0, registry.size(one));
+        assertTrue(recent(registry, one).isEmpty());
+        assertFalse(registry.remove(one));
+    }
+
+    /**
+     * remove drops a key, and its slot is reused without leaking the old elements
+     */
+    public void testRemoveReusesSlot() {
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(3, 1, QueueClock.SYSTEM);
+        registry.offer(1, 10);
+        registry.offer(1, 11);
+        registry.offer(2, 20);
+        assertTrue(registry.remove(1));
+        assertEquals(1, registry.keyCount());
+        registry.offer(3, 30);
+        assertEquals(Collections.singletonList(30), recent(registry, 3));
+        assertEquals(Collections.singletonList(20), recent(registry, 2));
+        assertTrue(recent(registry, 1).isEmpty());
+    }
+
+    /**
+     * evictIdle drops only the keys without a recent offer
+     */
+    public void testEvictIdle() {
+        ManualQueueClock clock = new ManualQueueClock();
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(2, 4, clock);
+        for (int key = 0; key < 1000; key++) {
+            registry.offer(key, key);
+        }
+        clock.advance(10, TimeUnit.SECONDS);
+        for (int key = 0; key < 1000; key += 2) {
+            registry.offer(key, -key);
+        }
+        clock.advance(5, TimeUnit.SECONDS);
+        assertEquals(500, registry.evictIdle(8, TimeUnit.SECONDS));
+        assertEquals(500, registry.keyCount());
+        for (int key = 0; key < 1000; key++) {
+            assertEquals((key & 1) == 0 ? 2 : 0, registry.size(key));
+        }
+        assertEquals(500, registry.evictIdle(1, TimeUnit.SECONDS));
+        assertEquals(0, registry.keyCount());
+        // the freed slabs are allocated again on demand
+        registry.offer(7, 7);
+        assertEquals(Collections.singletonList(7), recent(registry, 7));
+    }
+
+    /**
+     * clear drops every key
+     */
+    public void testClear() {
+        RecentElementsRegistry<Integer, Integer> registry = new RecentElementsRegistry<>(SIZE);
+        for (int key = 0; key < 100; key++) {
+            registry.offer(key, key);
+        }
+        registry.clear();
+        assertEquals(0, registry.keyCount());
+        registry.offer(1, 1);
+        assertEquals(1, registry.keyCount());
+    }
+}
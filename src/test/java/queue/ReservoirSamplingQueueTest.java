@@ -0,0 +1,126 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ReservoirSamplingQueueTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(ReservoirSamplingQueueTest.class);
+    }
+
+    /**
+     * Constructor throws IllegalArgumentException if capacity is not positive
+     */
+    public void testConstructor() {
+        try {
+            new ReservoirSamplingQueue<Integer>(0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+
+    /**
+     * offer throws NullPointerException for a null element
+     */
+    public void testOfferNull() {
+        try {
+            new ReservoirSamplingQueue<Integer>(SIZE).offer(null);
+            shouldThrow();
+        } catch (NullPointerException success) {}
+    }
+
+    /**
+     * Until the queue is full every offer is kept
+     */
+    public void testKeepsEverythingUntilFull() {
+        ReservoirSamplingQueue<Integer> q = new ReservoirSamplingQueue<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertEquals(SIZE, q.size());
+        ReservoirSamplingQueue.Sample<Integer> sample = q.drain();
+        assertEquals(SIZE, sample.elements().size());
+        assertEquals(SIZE, sample.offered());
+        assertEquals(1.0, sample.weight());
+        assertEquals(SIZE, new HashSet<>(sample.elements()).size());
+    }
+
+    /**
+     * A drain returns the offered count and resets the queue
+     */
+    public void testDrainResets() {
+        ReservoirSamplingQueue<Integer> q = new ReservoirSamplingQueue<>(SIZE);
+        for (int i = 0; i < 100 * SIZE; i++) {
+            q.offer(i);
+        }
+        assertEquals(100 * SIZE, q.offeredCount());
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(100 * SIZE, q.drainTo(drained));
+        assertEquals(SIZE, drained.size());
+        assertEquals(SIZE, new HashSet<>(drained).size());
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.offeredCount());
+        ReservoirSamplingQueue.Sample<Integer> empty = q.drain();
+        assertTrue(empty.elements().isEmpty());
+        assertEquals(0, empty.offered());
+        assertEquals(0.0, empty.weight());
+        q.offer(1);
+        assertEquals(1, q.drain().offered());
+    }
+
+    /**
+     * Every offered element is equally likely to be in the sample
+     */
+    public void testSampleIsUniform() {
+        final int capacity = 10;
+        final int offers = 100;
+        final int rounds = 20_000;
+        ReservoirSamplingQueue<Integer> q = new ReservoirSamplingQueue<>(capacity);
+        int[] hits = new int[offers];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < offers; i++) {
+                q.offer(i);
+            }
+            for (int element : q.drain().elements()) {
+                hits[element]++;
+            }
+        }
+        // expected rounds * capacity / offers = 2000 per element, sd about 42
+        double expected = (double) rounds * capacity / offers;
+        for (int i = 0; i < offers; i++) {
+            assertTrue("element " + i + " sampled " + hits[i] + " times",
+                    Math.abs(hits[i] - expected) < 0.1 * expected);
+        }
+    }
+
+    /**
+     * The timed drain waits for the first offer and returns an empty sample on timeout
+     */
+    public void testTimedDrain() throws InterruptedException {
+        final ReservoirSamplingQueue<Integer> q = new ReservoirSamplingQueue<>(SIZE);
+        long startTime = System.nanoTime();
+        assertTrue(q.drain(timeoutMillis(), TimeUnit.MILLISECONDS).elements().isEmpty());
+        assertTrue(millisElapsedSince(startTime) >= timeoutMillis());
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread t = newStartedThread(new CheckedRunnable() {
+            public void realRun() throws InterruptedException {
+                waiting.countDown();
+                ReservoirSamplingQueue.Sample<Integer> sample = q.drain(LONG_DELAY_MS, TimeUnit.MILLISECONDS);
+                assertEquals(1, sample.offered());
+                assertEquals(one, sample.elements().get(0));
+            }
+        });
+        await(waiting);
+        waitForThreadToEnterWaitState(t);
+        q.offer(one);
+        awaitTermination(t);
+    }
+}
@@ -0,0 +1,133 @@
+package queue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SlidingBloomFilterTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(SlidingBloomFilterTest.class);
+    }
+
+    /**
+     * Every element of the window is reported, elements older than a window and a generation are forgotten
+     */
+    public void testCountedWindow() {
+        SlidingBloomFilter<Long> filter = new SlidingBloomFilter<>(10_000, 0.01, 4);
+        for (long id = 0; id < 100_000; id++) {
+            filter.put(id);
+            if (id % 997 == 0) {
+                for (long seen = Math.max(0, id - 9_999); seen <= id; seen++) {
+                    assertTrue(filter.mightContain(seen));
+                }
+            }
+        }
+        int stale = 0;
+        for (long id = 0; id < 80_000; id++) {
+            if (filter.mightContain(id)) {
+                stale++;
+            }
+        }
+        assertTrue("stale hits: " + stale, stale < 80_000 * 0.02);
+    }
+
+    /**
+     * The false-positive rate stays close to the configured one
+     */
+    public void testFalsePositiveRate() {
+        SlidingBloomFilter<Long> filter = new SlidingBloomFilter<>(50_000, 0.01, 5);
+        for (long id = 0; id < 50_000; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (long id = 1_000_000; id < 1_000_000 + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < probes * 0.02);
+    }
+
+    /**
+     * Boxed and primitive ids and arbitrary objects are found
+     */
+    public void testElements() {
+        SlidingBloomFilter<Object> filter = new SlidingBloomFilter<>(100, 0.01, 2);
+        filter.put(Long.valueOf(42));
+        filter.put("message-7");
+        assertTrue(filter.mightContain(42L));
+        assertTrue(filter.mightContain(Long.valueOf(42)));
+        assertTrue(filter.mightContain("message-7"));
+        assertTrue(filter.sizeInBytes() > 0);
+        assertTrue(filter.hashes() > 0);
+    }
+
+    /**
+     * A timed filter forgets elements once the window and a generation passed
+     */
+    public void testTimedWindow() {
+        ManualQueueClock clock = new ManualQueueClock();
+        SlidingBloomFilter<Long> filter =
+                new SlidingBloomFilter<>(1000, 0.01, 4, 40, TimeUnit.SECONDS, clock);
+        filter.put(1L);
+        clock.advance(30, TimeUnit.SECONDS);
+        filter.put(2L);
+        assertTrue(filter.mightContain(1L));
+        clock.advance(15, TimeUnit.SECONDS);
+        assertTrue(filter.mightContain(1L));
+        clock.advance(10, TimeUnit.SECONDS);
+        assertFalse(filter.mightContain(1L));
+        assertTrue(filter.mightContain(2L));
+        clock.advance(1, TimeUnit.HOURS);
+        assertFalse(filter.mightContain(2L));
+        filter.put(3L);
+        assertTrue(filter.mightContain(3L));
+    }
+
+    /**
+     * Concurrent inserts lose no element of the window
+     */
+    public void testConcurrentInserts() throws InterruptedException {
+        final SlidingBloomFilter<Long> filter = new SlidingBloomFilter<>(400_000, 0.01, 4);
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long base = t * 50_000L;
+            newStartedThread(new CheckedRunnable() {
+                public void realRun() {
+                    for (long id = base; id < base + 50_000; id++) {
+                        filter.put(id);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        for (long id = 0; id < threads * 50_000L; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+    }
+
+    /**
+     * Constructor rejects non-positive sizes and rates outside (0, 1)
+     */
+    public void testConstructor() {
+        try {
+            new SlidingBloomFilter<Long>(0, 0.01, 4);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new SlidingBloomFilter<Long>(100, 1.0, 4);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+        try {
+            new SlidingBloomFilter<Long>(100, 0.01, 0);
+            shouldThrow();
+        } catch (IllegalArgumentException success) {}
+    }
+}
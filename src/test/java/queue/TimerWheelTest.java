@@ -0,0 +1,166 @@
+package queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest extends JSR166TestCase {
+
+    public static void main(String[] args) {
+        main(suite(), args);
+    }
+
+    public static junit.framework.Test suite() {
+        return newTestSuite(TimerWheelTest.class);
+    }
+
+    static class RecordingEntry extends TimerWheel.Entry {
+        final List<Long> expiredAt;
+        final long[] tick;
+
+        RecordingEntry(List<Long> expiredAt, long[] tick) {
+            this.expiredAt = expiredAt;
+            this.tick = tick;
+        }
+
+        @Override
+        protected void expire() {
+            expiredAt.add(tick[0]);
+        }
+    }
+
+    /**
+     * Entries expire exactly at their deadline tick, on every level of the wheel
+     */
+    public void testExpiresAtDeadline() {
+        long[] deadlines = {1, 5, 63, 64, 65, 100, 4095, 4096, 4097, 70000, 262144, 300000};
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = new long[1];
+        List<Long> expiredAt = new ArrayList<>();
+        for (long deadline : deadlines) {
+            wheel.schedule(new RecordingEntry(expiredAt, tick), deadline);
+        }
+        for (tick[0] = 1; tick[0] <= 300000; tick[0]++) {
+            wheel.advanceTo(tick[0]);
+        }
+        assertEquals(deadlines.length, expiredAt.size());
+        for (int i = 0; i < deadlines.length; i++) {
+            assertEquals(deadlines[i], (long) expiredAt.get(i));
+        }
+    }
+
+    /**
+     * Entries beyond the reach of the top level are re-cascaded until due
+     */
+    public void testExpiresBeyondTopLevel() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = new long[1];
+        List<Long> expiredAt = new ArrayList<>();
+        long deadline = (1L << 24) + 12345;
+        wheel.schedule(new RecordingEntry(expiredAt, tick), deadline);
+        wheel.advanceTo(deadline - 1);
+        assertTrue(expiredAt.isEmpty());
+        tick[0] = deadline;
+        wheel.advanceTo(deadline);
+        assertEquals(1, expiredAt.size());
+    }
+
+    /**
+     * Entries scheduled in the past expire on the next advance
+     */
+    public void testPastDeadline() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = {10};
+        List<Long> expiredAt = new ArrayList<>();
+        wheel.advanceTo(10);
+        wheel.schedule(new RecordingEntry(expiredAt, tick), 3);
+        wheel.advanceTo(10);
+        assertEquals(1, expiredAt.size());
+    }
+
+    /**
+     * A cancelled entry is unlinked from its slot and never expires
+     */
+    public void testCancel() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = new long[1];
+        List<Long> expiredAt = new ArrayList<>();
+        RecordingEntry first = new RecordingEntry(expiredAt, tick);
+        RecordingEntry second = new RecordingEntry(expiredAt, tick);
+        RecordingEntry third = new RecordingEntry(expiredAt, tick);
+        wheel.schedule(first, 10);
+        wheel.schedule(second, 10);
+        wheel.schedule(third, 5000);
+        wheel.advanceTo(1);
+        assertEquals(3, wheel.linkedCount());
+        assertTrue(wheel.cancel(first));
+        assertTrue(wheel.cancel(third));
+        assertFalse(wheel.cancel(third));
+        wheel.advanceTo(2);
+        assertEquals(1, wheel.linkedCount());
+        for (tick[0] = 3; tick[0] <= 6000; tick[0]++) {
+            wheel.advanceTo(tick[0]);
+        }
+        assertEquals(1, expiredAt.size());
+        assertEquals(0, wheel.linkedCount());
+        assertFalse(wheel.cancel(second));
+    }
+
+    /**
+     * An entry cancelled before it reached its slot is dropped
+     */
+    public void testCancelBeforePlaced() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = new long[1];
+        List<Long> expiredAt = new ArrayList<>();
+        RecordingEntry entry = new RecordingEntry(expiredAt, tick);
+        assertTrue(wheel.cancel(entry));
+        wheel.schedule(entry, 3);
+        wheel.advanceTo(10);
+        assertEquals(0, wheel.linkedCount());
+        assertTrue(expiredAt.isEmpty());
+    }
+
+    /**
+     * An entry that throws is reported to the uncaught exception handler and the wheel goes on
+     */
+    public void testExpireFailureReported() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, false);
+        long[] tick = new long[1];
+        List<Long> expiredAt = new ArrayList<>();
+        final RuntimeException failure = new RuntimeException();
+        final List<Throwable> reported = new ArrayList<>();
+        wheel.schedule(new TimerWheel.Entry() {
+            @Override
+            protected void expire() {
+                throw failure;
+            }
+        }, 2);
+        wheel.schedule(new RecordingEntry(expiredAt, tick), 2);
+        Thread current = Thread.currentThread();
+        current.setUncaughtExceptionHandler((thread, e) -> reported.add(e));
+        try {
+            wheel.advanceTo(2);
+        } finally {
+            current.setUncaughtExceptionHandler(null);
+        }
+        assertEquals(1, reported.size());
+        assertSame(failure, reported.get(0));
+        assertEquals(1, expiredAt.size());
+    }
+
+    /**
+     * The ticker thread expires scheduled entries
+     */
+    public void testTickerThread() {
+        final CountDownLatch expired = new CountDownLatch(1);
+        TimerWheel.shared().schedule(new TimerWheel.Entry() {
+            @Override
+            protected void expire() {
+                expired.countDown();
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+        await(expired);
+    }
+}
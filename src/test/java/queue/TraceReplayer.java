@@ -0,0 +1,277 @@
+package queue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Replays a {@link QueueTrace} recorded by {@link TraceRecordingQueue} against the queue
+ * implementations of this package and reports throughput, per-operation latency, evictions
+ * and how many removals returned a different element than in the recording.
+ * <p>
+ * Every recorded thread is replayed by its own thread, in recorded order, and every record
+ * runs the operation it recorded on blocking queues: put, the timed offer and poll, take and
+ * drainTo. The other queues replay them with offer and poll. With
+ * {@code --speed=1} the recorded inter-operation timing is reproduced, larger values replay
+ * faster and {@code --speed=0} replays as fast as possible. Blocking removals wait at most
+ * {@code --takeTimeout} milliseconds, because an implementation that evicted more than the
+ * recorded one may never deliver the element.
+ * <p>
+ * Usage: {@code java -cp target/classes:target/test-classes queue.TraceReplayer trace-file
+ * [--queue=all|<simple class name>] [--capacity=1024] [--speed=0] [--takeTimeout=100]}
+ */
+public class TraceReplayer {
+
+    static final class Result {
+        final String name;
+        final long operations;
+        final double elapsedSeconds;
+        final long evictions;
+        final long divergences;
+        final LongHistogram.Snapshot latency;
+
+        Result(String name, long operations, double elapsedSeconds, long evictions, long divergences,
+               LongHistogram.Snapshot latency) {
+            this.name = name;
+            this.operations = operations;
+            this.elapsedSeconds = elapsedSeconds;
+            this.evictions = evictions;
+            this.divergences = divergences;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s ops=%d throughput=%.0f/s evictions=%d divergences=%d%n"
+                            + "%-40s latency(ns) p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                    name, operations, operations / elapsedSeconds, evictions, divergences,
+                    "", latency.valueAtPercentile(50), latency.valueAtPercentile(90),
+                    latency.valueAtPercentile(99), latency.valueAtPercentile(99.9), latency.max());
+        }
+    }
+
+    /** Queue implementations of this package, by simple class name. */
+    static Map<String, IntFunction<Queue<Long>>> implementations() {
+        Map<String, IntFunction<Queue<Long>>> implementations = new LinkedHashMap<>();
+        implementations.put("MostRecentlyInsertedQueue", MostRecentlyInsertedQueue::new);
+        implementations.put("ConcurrentMostRecentlyInsertedQueue", ConcurrentMostRecentlyInsertedQueue::new);
+        implementations.put("MostRecentlyInsertedBlockingQueue", MostRecentlyInsertedBlockingQueue::new);
+        implementations.put("PriorityLaneBlockingQueue", capacity -> new PriorityLaneBlockingQueue<>(capacity, 1, e -> 0));
+        // always holds a single element, the capacity option does not apply
+        implementations.put("MostRecentlyInsertedMailbox", capacity -> new MostRecentlyInsertedMailbox<>());
+        return implementations;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("usage: TraceReplayer trace-file [--queue=all] [--capacity=1024]"
+                    + " [--speed=0] [--takeTimeout=100]");
+        }
+        String queueNames = "all";
+        int capacity = 1024;
+        double speed = 0;
+        long takeTimeoutMillis = 100;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("unexpected argument: " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "queue": queueNames = value; break;
+                case "capacity": capacity = Integer.parseInt(value); break;
+                case "speed": speed = Double.parseDouble(value); break;
+                case "takeTimeout": takeTimeoutMillis = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+
+        List<QueueTrace.Event> events;
+        try (InputStream in = new FileInputStream(args[0])) {
+            events = QueueTrace.read(in);
+        }
+        Map<String, IntFunction<Queue<Long>>> implementations = implementations();
+        List<String> names = new ArrayList<>();
+        if ("all".equals(queueNames)) {
+            names.addAll(implementations.keySet());
+        } else {
+            for (String name : queueNames.split(",")) {
+                names.add(name);
+            }
+        }
+        System.out.println("# " + args[0] + ": " + events.size() + " operations, capacity=" + capacity
+                + " speed=" + speed);
+        for (String name : names) {
+            IntFunction<Queue<Long>> factory = implementations.get(name);
+            if (factory == null) {
+                throw new IllegalArgumentException("unknown queue: " + name + ", known: " + implementations.keySet());
+            }
+            System.out.println(replay(name, factory.apply(capacity), events, speed, takeTimeoutMillis));
+        }
+    }
+
+    static Result replay(String name, final Queue<Long> queue, List<QueueTrace.Event> events,
+                         final double speed, final long takeTimeoutMillis) throws InterruptedException {
+        final Map<Long, List<QueueTrace.Event>> byThread = new LinkedHashMap<>();
+        for (QueueTrace.Event event : events) {
+            List<QueueTrace.Event> threadEvents = byThread.get(event.threadId());
+            if (threadEvents == null) {
+                byThread.put(event.threadId(), threadEvents = new ArrayList<>());
+            }
+            threadEvents.add(event);
+        }
+
+        // MostRecentlyInsertedQueue is not thread-safe, the replayer serializes access to it
+        final boolean external = queue instanceof MostRecentlyInsertedQueue;
+        final LongHistogram latency = new LongHistogram();
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong removed = new AtomicLong();
+        final AtomicLong divergences = new AtomicLong();
+        final long start = System.nanoTime();
+
+        List<Thread> threads = new ArrayList<>();
+        for (final List<QueueTrace.Event> threadEvents : byThread.values()) {
+            threads.add(new Thread(() -> {
+                long threadInserted = 0;
+                long threadRemoved = 0;
+                long threadDivergences = 0;
+                for (QueueTrace.Event event : threadEvents) {
+                    if (speed > 0) {
+                        long due = start + (long) (event.timeNanos() / speed);
+                        long now;
+                        while ((now = System.nanoTime()) < due) {
+                            LockSupport.parkNanos(due - now);
+                        }
+                    }
+                    long before = System.nanoTime();
+                    Replayed replayed = execute(queue, event, external, takeTimeoutMillis);
+                    latency.record(System.nanoTime() - before);
+                    threadInserted += replayed.inserted;
+                    threadRemoved += replayed.removed;
+                    if (replayed.diverged) {
+                        threadDivergences++;
+                    }
+                }
+                inserted.addAndGet(threadInserted);
+                removed.addAndGet(threadRemoved);
+                divergences.addAndGet(threadDivergences);
+            }, name + "-replay"));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        long remaining;
+        if (external) {
+            synchronized (queue) {
+                remaining = queue.size();
+            }
+        } else {
+            remaining = queue.size();
+        }
+        long evictions = inserted.get() - removed.get() - remaining;
+        return new Result(name, events.size(), elapsedSeconds, evictions, divergences.get(), latency.snapshot());
+    }
+
+    static final class Replayed {
+        static final Replayed NONE = new Replayed(0, 0, false);
+        static final Replayed INSERTED = new Replayed(1, 0, false);
+        static final Replayed REJECTED = new Replayed(0, 0, true);
+
+        final int inserted;
+        final int removed;
+        final boolean diverged;
+
+        Replayed(int inserted, int removed, boolean diverged) {
+            this.inserted = inserted;
+            this.removed = removed;
+            this.diverged = diverged;
+        }
+    }
+
+    static Replayed execute(Queue<Long> queue, QueueTrace.Event event, boolean external, long takeTimeoutMillis) {
+        if (external) {
+            synchronized (queue) {
+                return executeUnlocked(queue, event, takeTimeoutMillis);
+            }
+        }
+        return executeUnlocked(queue, event, takeTimeoutMillis);
+    }
+
+    private static Replayed executeUnlocked(Queue<Long> queue, QueueTrace.Event event, long takeTimeoutMillis) {
+        BlockingQueue<Long> blockingQueue = (queue instanceof BlockingQueue) ? (BlockingQueue<Long>) queue : null;
+        try {
+            switch (event.op()) {
+                case OFFER:
+                case PUT:
+                case OFFER_TIMED: {
+                    boolean offered;
+                    if (blockingQueue == null || event.op() == QueueTrace.Op.OFFER) {
+                        offered = queue.offer(event.element());
+                    } else if (event.op() == QueueTrace.Op.PUT) {
+                        blockingQueue.put(event.element());
+                        offered = true;
+                    } else {
+                        offered = blockingQueue.offer(event.element(), event.timeoutNanos(), TimeUnit.NANOSECONDS);
+                    }
+                    if (offered) {
+                        return event.hasResult() ? Replayed.INSERTED : new Replayed(1, 0, true);
+                    }
+                    return event.hasResult() ? Replayed.REJECTED : Replayed.NONE;
+                }
+                case PEEK:
+                    return removal(queue.peek(), event, 0);
+                case POLL:
+                    return removal(queue.poll(), event, 1);
+                case TAKE:
+                case POLL_TIMED: {
+                    long timeout = (event.op() == QueueTrace.Op.TAKE)
+                            ? TimeUnit.MILLISECONDS.toNanos(takeTimeoutMillis)
+                            : Math.min(event.timeoutNanos(), TimeUnit.MILLISECONDS.toNanos(takeTimeoutMillis));
+                    Long element = (blockingQueue != null)
+                            ? blockingQueue.poll(timeout, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    return removal(element, event, 1);
+                }
+                case DRAIN: {
+                    int limit = (int) event.result();
+                    int drained = 0;
+                    if (blockingQueue != null) {
+                        drained = blockingQueue.drainTo(new ArrayList<Long>(limit), limit);
+                    } else {
+                        while (drained < limit && queue.poll() != null) {
+                            drained++;
+                        }
+                    }
+                    return new Replayed(0, drained, drained != limit);
+                }
+                default:
+                    throw new AssertionError(event.op());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Replayed.NONE;
+        }
+    }
+
+    private static Replayed removal(Long element, QueueTrace.Event event, int removes) {
+        boolean diverged = (element == null)
+                ? event.hasResult()
+                : !event.hasResult() || element != event.result();
+        return new Replayed(0, element == null ? 0 : removes, diverged);
+    }
+}